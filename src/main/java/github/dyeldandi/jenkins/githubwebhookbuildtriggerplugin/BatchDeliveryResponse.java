@@ -0,0 +1,177 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.holding.DeliveryHoldingBuffer;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.routing.JobNameIndex;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.webhooksecret.GitHubWebhookUtility;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Streams a batch of recorded deliveries (e.g. exported from GitHub after an outage) through the trigger path.
+ *
+ * Request: newline delimited JSON, one delivery per line:
+ *   {"event":"push","delivery":"<X-GitHub-Delivery>","signature":"sha1=...","received_at":1491139374000,"body":"<raw payload json>"}
+ * Requires Overall/Administer, every record is also checked against the webhook secret like a single
+ * delivery to /receive.
+ * received_at (epoch millis) is when GitHub originally sent the delivery. Flags are detected as of that time,
+ * so a push replayed hours later still triggers; without it the head commit's timestamp is used.
+ *
+ * Response: newline delimited JSON, one result per record, written as soon as the record is handled:
+ *   {"line":1,"delivery":"...","status":"triggered","jobs":["codeclou---foo"]}
+ * A record that matched jobs but triggered none of them reports "skipped", one that failed reports "error".
+ *
+ * Records are read and handled one at a time, all records use the same job index snapshot and the
+ * dedup sets are bounded, so memory use does not grow with the size of the batch.
+ */
+class BatchDeliveryResponse implements HttpResponse {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchDeliveryResponse.class.getName());
+
+    private static final Gson GSON = new Gson();
+    private static final int MAX_REMEMBERED = 10000;
+
+    private static final class Record {
+        private String event;
+        private String delivery;
+        private String signature;
+        private String body;
+        private Long received_at;
+    }
+
+    @Override
+    public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException {
+        GithubWebhookTriggerService triggerService = GithubWebhookTriggerService.get();
+        DeliveryHoldingBuffer holdingBuffer = DeliveryHoldingBuffer.get();
+        String webhookSecret = GithubWebhookBuildTriggerPluginBuilder.getSettings().getWebhookSecret();
+        JobNameIndex.Snapshot jobs = JobNameIndex.get().getSnapshot();
+        Set<String> seenDeliveries = boundedSet();
+        Set<String> seenPushes = boundedSet();
+        int line = 0;
+        int triggered = 0;
+
+        rsp.setContentType("application/x-ndjson;charset=UTF-8");
+        PrintWriter out = rsp.getWriter();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(req.getInputStream(), StandardCharsets.UTF_8));
+        String text;
+        while ((text = reader.readLine()) != null) {
+            line++;
+            if (text.trim().isEmpty()) {
+                continue;
+            }
+            JsonObject result = new JsonObject();
+            result.addProperty("line", line);
+            try {
+                Record record = GSON.fromJson(text, Record.class);
+                if (record == null || record.body == null) {
+                    result.addProperty("status", "invalid");
+                } else {
+                    result.addProperty("delivery", record.delivery);
+                    this.handle(record, result, triggerService, holdingBuffer, webhookSecret, jobs, seenDeliveries, seenPushes);
+                    if (result.has("jobs")) {
+                        triggered += result.getAsJsonArray("jobs").size();
+                    }
+                }
+            } catch (JsonParseException ex) {
+                result.addProperty("status", "invalid");
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "receive-batch: could not handle record on line " + line, ex);
+                result.addProperty("status", "error");
+                result.addProperty("error", String.valueOf(ex.getMessage()));
+            }
+            out.println(GSON.toJson(result));
+            out.flush();
+        }
+        LOGGER.info("receive-batch: records=" + line + " jobsTriggered=" + triggered);
+    }
+
+    private void handle(Record record, JsonObject result, GithubWebhookTriggerService triggerService, DeliveryHoldingBuffer holdingBuffer,
+                        String webhookSecret, JobNameIndex.Snapshot jobs, Set<String> seenDeliveries, Set<String> seenPushes) {
+        if (webhookSecret != null && !webhookSecret.isEmpty()
+                && !GitHubWebhookUtility.verifySignature(record.body, record.signature, webhookSecret)) {
+            result.addProperty("status", "invalid_signature");
+            return;
+        }
+        if (record.delivery != null && !seenDeliveries.add(record.delivery)) {
+            result.addProperty("status", "duplicate");
+            return;
+        }
+        GithubWebhookPayload payload = triggerService.decode(record.body);
+        if (payload == null) {
+            result.addProperty("status", "ignored");
+            return;
+        }
+        long receivedAt = getReceivedAt(record, payload);
+        triggerService.prepare(payload, record.event, receivedAt);
+        if (payload.getHook_id() != null || !triggerService.isTriggering(payload)) {
+            result.addProperty("status", "ignored");
+            return;
+        }
+        // coalesce redeliveries of the same push that carry a different delivery id
+        if (payload.getRepository() != null
+                && !seenPushes.add(payload.getRepository().getFull_name() + " " + payload.getRef() + " " + payload.getAfter())) {
+            result.addProperty("status", "duplicate");
+            return;
+        }
+        if (holdingBuffer.shouldHold()) {
+            result.addProperty("status", holdingBuffer.hold(payload, record.body, receivedAt) ? "held" : "held_buffer_full");
+            return;
+        }
+        TriggerResult triggerResult = triggerService.triggerJobs(payload, jobs);
+        JsonArray triggeredJobs = new JsonArray();
+        for (TriggerResult.JobResult job : triggerResult.getTriggeredJobs()) {
+            triggeredJobs.add(job.getJobName());
+        }
+        JsonArray skippedJobs = new JsonArray();
+        for (TriggerResult.JobResult job : triggerResult.getSkippedJobs()) {
+            skippedJobs.add(job.getJobName() + " " + job.getStatus());
+        }
+        result.addProperty("status", triggeredJobs.size() > 0 ? "triggered" : "skipped");
+        result.add("jobs", triggeredJobs);
+        result.add("skipped", skippedJobs);
+    }
+
+    /*
+     * When GitHub sent the delivery: received_at if the record has it, else the head commit's timestamp
+     * (a push is delivered right after it was made), else now.
+     */
+    private static long getReceivedAt(Record record, GithubWebhookPayload payload) {
+        if (record.received_at != null) {
+            return record.received_at;
+        }
+        if (payload.getHead_commit() != null && payload.getHead_commit().getTimestamp() != null) {
+            return payload.getHead_commit().getTimestamp().getMillis();
+        }
+        return System.currentTimeMillis();
+    }
+
+    private static Set<String> boundedSet() {
+        return Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_REMEMBERED;
+            }
+        });
+    }
+}
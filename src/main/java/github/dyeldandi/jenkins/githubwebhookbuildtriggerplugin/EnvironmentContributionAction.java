@@ -21,14 +21,12 @@ public class EnvironmentContributionAction implements EnvironmentContributingAct
     private transient Map<String, String> environmentVariables = new HashMap<>();
 
     public EnvironmentContributionAction(EnvironmentContributionAction eca) {
-        for (String key : eca.environmentVariables.keySet()) {
-            this.environmentVariables.put(key, eca.environmentVariables.get(key));
-        }
+        this.environmentVariables.putAll(eca.environmentVariables);
     }
 
     public EnvironmentContributionAction(GithubWebhookPayload payload) {
-        String normalizedBranch = this.normalizeBranchNameOrEmptyString(payload.getRef());
-        String normalizedTag = this.normalizeTagNameOrEmptyString(payload.getRef());
+        String normalizedBranch = normalizeBranchNameOrEmptyString(payload.getRef());
+        String normalizedTag = normalizeTagNameOrEmptyString(payload.getRef());
 	String normalizedJFlags = this.normalizeJFlagsOrEmptyString(payload.getJFlags());
 	this.environmentVariables.put("GWBT_TYPE", payload.getType());
         this.environmentVariables.put("GWBT_REF", payload.getRef());
@@ -63,10 +61,13 @@ public class EnvironmentContributionAction implements EnvironmentContributingAct
         }
     }
 
-    public void switchToCommitFlags(String ref, ArrayList<GithubWebhookPayload.GithubWebhookPayloadJenkinsFlag> jFlags, GithubWebhookPayload.GithubWebhookPayloadPerson committer) {
+    public void switchToCommitFlags(String ref, ArrayList<GithubWebhookPayload.GithubWebhookPayloadJenkinsFlag> jFlags, GithubWebhookPayload.GithubWebhookPayloadPerson committer, String treeId) {
         String normalizedJFlags = this.normalizeJFlagsOrEmptyString(jFlags);
         this.environmentVariables.put("GWBT_FLAGS", normalizedJFlags);
         this.environmentVariables.put("GWBT_COMMIT", ref);
+        if (treeId != null) {
+            this.environmentVariables.put("GWBT_COMMIT_TREE", treeId);
+        }
         if (committer != null) {
             String email = committer.getEmail();
             if (email != null) {
@@ -93,7 +94,7 @@ public class EnvironmentContributionAction implements EnvironmentContributingAct
     /*
      * converts "refs/heads/develop" to "develop"
      */
-    private String normalizeBranchNameOrEmptyString(String branchname) {
+    static String normalizeBranchNameOrEmptyString(String branchname) {
         if (branchname != null && branchname.startsWith("refs/heads/")) {
             return branchname.replace("refs/heads/", "");
         }
@@ -103,7 +104,7 @@ public class EnvironmentContributionAction implements EnvironmentContributingAct
     /*
      * converts "refs/tags/1.0.0" to "1.0.0"
      */
-    private String normalizeTagNameOrEmptyString(String tagname) {
+    static String normalizeTagNameOrEmptyString(String tagname) {
         if (tagname != null && tagname.startsWith("refs/tags/")) {
             return tagname.replace("refs/tags/", "");
         }
@@ -112,8 +113,8 @@ public class EnvironmentContributionAction implements EnvironmentContributingAct
 
     protected String getEnvVarInfo() {
         StringBuilder ret = new StringBuilder();
-        for (String key : this.environmentVariables.keySet()) {
-            ret.append(key).append(":").append(environmentVariables.get(key)).append("\n");
+        for (Map.Entry<String, String> envVar : this.environmentVariables.entrySet()) {
+            ret.append(envVar.getKey()).append(":").append(envVar.getValue()).append("\n");
         }
         return ret.toString();
     }
@@ -141,10 +142,21 @@ public class EnvironmentContributionAction implements EnvironmentContributingAct
         }
     }
 
+    /*
+     * Compact action persisted with the build, see GithubWebhookContextAction
+     */
+    public GithubWebhookContextAction toContextAction() {
+        return new GithubWebhookContextAction(environmentVariables);
+    }
+
     /**
      * Since WorkflowJob does not support EnvironmentContributionAction yet,
      * we need a ParametersAction filled with List ParameterValue
      * See: https://github.com/jenkinsci/workflow-job-plugin/blob/124b171b76394728f9c8504829cf6857abc8bdb5/src/main/java/org/jenkinsci/plugins/workflow/job/WorkflowRun.java#L435
+     *
+     * Only used when 'legacy build parameters' is enabled in the global configuration,
+     * for pipelines that still read the variables via params.GWBT_*.
+     * Otherwise {@link #toContextAction()} is all a build needs.
      */
     public ParametersAction transform() {
         List<ParameterValue> paramValues = new ArrayList<>();
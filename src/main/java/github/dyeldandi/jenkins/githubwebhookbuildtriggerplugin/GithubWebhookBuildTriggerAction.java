@@ -5,18 +5,19 @@
  */
 package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import hudson.Extension;
 import hudson.model.*;
 import hudson.util.HttpResponses;
+import jenkins.model.Jenkins;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.capture.PayloadCapture;
 import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.holding.DeliveryHoldingBuffer;
 import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.webhooksecret.GitHubWebhookUtility;
-import jenkins.model.Jenkins;
 import org.apache.commons.io.IOUtils;
-import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.WebMethod;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 import hudson.security.csrf.CrumbExclusion;
 import javax.servlet.FilterChain;
@@ -25,12 +26,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.StringWriter;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.logging.Logger;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import org.joda.time.DateTime;
 
 @Extension
 public class GithubWebhookBuildTriggerAction implements UnprotectedRootAction {
@@ -54,45 +50,6 @@ public class GithubWebhookBuildTriggerAction implements UnprotectedRootAction {
         return URL_NAME;
     }
 
-    private String triggerJob(String jobNamePrefix, EnvironmentContributionAction environmentContributionAction) {
-        StringBuilder jobsTriggered = new StringBuilder();
-        ArrayList<String> jobsAlreadyTriggered = new ArrayList<>();
-        StringBuilder causeNote = new StringBuilder();
-        Cause cause = new Cause.RemoteCause("github.com", causeNote.toString());
-
-        Collection<Job> jobs = Jenkins.getInstance().getAllItems(Job.class);
-        if (jobs.isEmpty()) {
-            jobsTriggered.append("   WARNING NO JOBS FOUND!\n");
-            jobsTriggered.append("      You either have no jobs or if you are using matrix-based security,\n");
-            jobsTriggered.append("      please give the following rights to 'Anonymous':\n");
-            jobsTriggered.append("      'Job' -> build, discover, read.\n");
-        }
-        for (Job job: jobs) {
-            if (job.getName().startsWith(jobNamePrefix) && ! jobsAlreadyTriggered.contains(job.getName())) {
-                jobsAlreadyTriggered.add(job.getName());
-                if (job instanceof WorkflowJob) {
-                    WorkflowJob wjob = (WorkflowJob) job;
-                    if (wjob.isBuildable()) {
-                        jobsTriggered.append("   WORKFLOWJOB> ").append(job.getName()).append(" TRIGGERED\n");
-                        wjob.scheduleBuild2(0, environmentContributionAction.transform(), new CauseAction(cause));
-                    } else {
-                        jobsTriggered.append("   WORKFLOWJOB> ").append(job.getName()).append(" NOT BUILDABLE. SKIPPING.\n");
-                    }
-                } else {
-                    AbstractProject projectScheduable = (AbstractProject) job;
-                    if (job.isBuildable()) {
-                        jobsTriggered.append("   CLASSICJOB>  ").append(job.getName()).append(" TRIGGERED\n");
-                        projectScheduable.scheduleBuild(0, cause, environmentContributionAction);
-                    } else {
-                        jobsTriggered.append("   CLASSICJOB>  ").append(job.getName()).append(" NOT BUILDABLE. SKIPPING.\n");
-                    }
-                }
-            }
-        }
-        return jobsTriggered.toString();
-    }
-
-
     /*
      * http://jenkins.foo/github-webhook-build-trigger/receive
      */
@@ -101,17 +58,15 @@ public class GithubWebhookBuildTriggerAction implements UnprotectedRootAction {
         StringWriter writer = new StringWriter();
         IOUtils.copy(request.getInputStream(), writer, "UTF-8");
         String requestBody = writer.toString();
-        Gson gson = new GsonBuilder().registerTypeAdapter(new TypeToken<DateTime>(){}.getType(), new GithubWebhookPayload.DateTimeConverter()).create();
+        long receivedAt = System.currentTimeMillis();
         StringBuilder info = new StringBuilder();
-        LOGGER.fine("doReceive: x-github-event=" + request.getHeader("x-github-event") + " requestBody=" + requestBody);
+        PayloadCapture.get().capture(request, requestBody);
         try {
-            GithubWebhookPayload githubWebhookPayload = gson.fromJson(requestBody, GithubWebhookPayload.class);
+            GithubWebhookTriggerService triggerService = GithubWebhookTriggerService.get();
+            GithubWebhookPayload githubWebhookPayload = triggerService.decode(requestBody, request.getHeader("x-github-event"), receivedAt);
             if (githubWebhookPayload == null) {
                 return HttpResponses.error(500, this.getTextEnvelopedInBanner("   ERROR: payload json is empty at least requestBody is empty!"));
             }
-            githubWebhookPayload.setType(request.getHeader("x-github-event"));
-            githubWebhookPayload.findFlags();
-            githubWebhookPayload.findRelease();
             LOGGER.info("doReceive: type=" + githubWebhookPayload.getType()
                     + " hasJFlags=" + githubWebhookPayload.hasJFlags()
                     + " hasJCFlags=" + githubWebhookPayload.hasJCFlags());
@@ -120,7 +75,7 @@ public class GithubWebhookBuildTriggerAction implements UnprotectedRootAction {
             // WEBHOOK SECRET
             //
             String githubSignature = request.getHeader("x-hub-signature");
-            String webhookSecretAsConfiguredByUser = GithubWebhookBuildTriggerPluginBuilder.DescriptorImpl.getDescriptor().getWebhookSecret();
+            String webhookSecretAsConfiguredByUser = GithubWebhookBuildTriggerPluginBuilder.getSettings().getWebhookSecret();
             String webhookSecretMessage ="validating webhook payload against wevhook secret.";
             info.append(">> webhook secret validation").append("\n");
             if (webhookSecretAsConfiguredByUser == null || webhookSecretAsConfiguredByUser.isEmpty()) {
@@ -137,7 +92,7 @@ public class GithubWebhookBuildTriggerAction implements UnprotectedRootAction {
             info.append(webhookSecretMessage).append("\n\n");
 
             //
-            // CHECK IF INITIAL REQUEST (see test-webhook-init-payload.json)
+            // CHECK IF INITIAL REQUEST (see warmup/ping-payload.json)
             // See: https://developer.github.com/webhooks/#ping-event
             //
             if (githubWebhookPayload.getHook_id() != null) {
@@ -148,39 +103,19 @@ public class GithubWebhookBuildTriggerAction implements UnprotectedRootAction {
             }
 
             //
-            // PAYLOAD TO ENVVARS
+            // HOLD WHILE JENKINS IS QUIETING DOWN
             //
-            EnvironmentContributionAction environmentContributionAction = new EnvironmentContributionAction(githubWebhookPayload);
-
-            info.append("Type: ").append(githubWebhookPayload.getType()).append("\n");
-
-            if (githubWebhookPayload.getType().equals("push") && githubWebhookPayload.hasJCFlags()) {
-                for (GithubWebhookPayload.GithubWebhookPayloadJenkinsCommitFlags cflags : githubWebhookPayload.getJCFlags()) {
-                    info.append("Flags: ");
-                    for (GithubWebhookPayload.GithubWebhookPayloadJenkinsFlag flag : cflags.getJFlags()) {
-                        if (flag.hasValue()) {
-                            info.append("[").append(flag.getName()).append("=").append(flag.getValue()).append("] ");
-                        } else {
-                            info.append("[").append(flag.getName()).append("] ");
-                        }
-                        info.append("\n");
-                    }
-                    info.append("\n");
-                    EnvironmentContributionAction commitEnvironmentContributionAction = new EnvironmentContributionAction(environmentContributionAction);
-                    commitEnvironmentContributionAction.switchToCommitFlags(cflags.getRef(), cflags.getJFlags(), cflags.getCommitter());
-                    String jobNamePrefix = this.getJobName(githubWebhookPayload);
-                    info.append("Triggering jobs starting with "+jobNamePrefix+"\n");
-                    info.append("Environment: \n");
-                    info.append(commitEnvironmentContributionAction.getEnvVarInfo());
-                    info.append("Triggered: "+this.triggerJob(jobNamePrefix, commitEnvironmentContributionAction)+"\n");
+            DeliveryHoldingBuffer holdingBuffer = DeliveryHoldingBuffer.get();
+            if (triggerService.isTriggering(githubWebhookPayload) && holdingBuffer.shouldHold()) {
+                if (!holdingBuffer.hold(githubWebhookPayload, requestBody, receivedAt)) {
+                    return HttpResponses.error(503, this.getTextEnvelopedInBanner(info.toString() + "   ERROR: Jenkins is not accepting builds and the holding buffer is full."));
                 }
-            } else if (githubWebhookPayload.getType().equals("create") && githubWebhookPayload.getRef_type().equals("tag")) {
-                String jobNamePrefix = this.getJobName(githubWebhookPayload);
-                info.append("Triggering jobs starting with "+jobNamePrefix+"\n");
-                info.append("Environment: \n");
-                info.append(environmentContributionAction.getEnvVarInfo());
-                info.append("Triggered: "+this.triggerJob(jobNamePrefix, environmentContributionAction)+"\n");
+                info.append(">> Jenkins is not accepting builds right now (quieting down).\n");
+                info.append("   Delivery held, jobs will be triggered once builds are accepted again.\n");
+                return HttpResponses.plainText(this.getTextEnvelopedInBanner(info.toString()));
             }
+
+            info.append(triggerService.trigger(request.getHeader("x-github-event"), githubWebhookPayload).getInfo());
             return HttpResponses.plainText(this.getTextEnvelopedInBanner(info.toString()));
         } catch (JsonSyntaxException ex) {
             return HttpResponses.error(500, this.getTextEnvelopedInBanner(info.toString() + "   ERROR: github webhook json invalid"));
@@ -188,31 +123,29 @@ public class GithubWebhookBuildTriggerAction implements UnprotectedRootAction {
     }
 
     /*
-     * converts "codeclou/foo" to "codeclou---foo"
+     * http://jenkins.foo/github-webhook-build-trigger/receive-batch
+     *
+     * Replays recorded deliveries in one request, see BatchDeliveryResponse for the record format.
+     * Only for administrators: a signed body stays valid forever and received_at is taken as given,
+     * so anybody able to call this could trigger old pushes again.
      */
-    private String normalizeRepoFullName(String reponame) {
-        return reponame.replace("/", "---");
-    }
-
-    private String normalizeTagName(String reponame, String ref) {
-        if (ref.contains("/")) {
-            String[] refsplit = ref.split("/", 2);
-            return reponame.replace("/", "---") + "---" + refsplit[0];
-        } else {
-            return reponame.replace("/", "---") + "---" + ref;
-        }
+    @RequirePOST
+    @WebMethod(name = "receive-batch")
+    public HttpResponse doReceiveBatch() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return new BatchDeliveryResponse();
     }
 
-    private String getJobName(GithubWebhookPayload payload) {
-        if (payload.getType().equals("push")) {
-            return this.normalizeRepoFullName(payload.getRepository().getFull_name());
-        } else if (payload.getType().equals("create") && payload.getRef_type().equals("tag") && payload.isReleaseTag()) {
-            return "RELEASE---" + this.normalizeRepoFullName(payload.getRepository().getFull_name());
-        } else if (payload.getType().equals("create") && payload.getRef_type().equals("tag")) {
-            return "TAG---" + this.normalizeTagName(payload.getRepository().getFull_name(), payload.getRef());
-        } else {
-            return "EVERYTHING---" + this.normalizeRepoFullName(payload.getRepository().getFull_name());
+    /*
+     * http://jenkins.foo/github-webhook-build-trigger/ready
+     *
+     * For load balancer health checks: 503 until StartupWarmup ran and Jenkins is fully up.
+     */
+    public HttpResponse doReady() {
+        if (!StartupWarmup.isReady()) {
+            return HttpResponses.error(503, "warming up\n");
         }
+        return HttpResponses.plainText("ready\n");
     }
 
     private String getTextEnvelopedInBanner(String text) {
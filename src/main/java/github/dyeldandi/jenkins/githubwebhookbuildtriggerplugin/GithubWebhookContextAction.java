@@ -0,0 +1,264 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2017 Bernhard Grünewaldt
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling.BuildPriority;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Action;
+import hudson.model.EnvironmentContributor;
+import hudson.model.InvisibleAction;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * Webhook context persisted with every triggered build.
+ *
+ * Replaces the ParametersAction of one StringParameterValue per GWBT_* variable:
+ * only the raw payload values are stored (GWBT_TAG and GWBT_BRANCH are derived from ref),
+ * empty values are omitted from build.xml and repository strings are interned so that
+ * all builds of a repo share the same instances in the loaded build history.
+ */
+public class GithubWebhookContextAction extends InvisibleAction implements Queue.QueueAction {
+
+    private String type;
+    private String ref;
+    private String before;
+    private String after;
+    private String flags;
+    private String commit;
+    private String committer;
+    private String tree;
+    private Integer treeBuilt;
+    private BuildPriority priority;
+    private String repo;
+    private String repoName;
+    private String cloneUrl;
+    private String htmlUrl;
+    private String release;
+    private String sender;
+    private String pusher;
+
+    public GithubWebhookContextAction(Map<String, String> environmentVariables) {
+        this.type = intern(environmentVariables.get("GWBT_TYPE"));
+        this.ref = compact(environmentVariables.get("GWBT_REF"));
+        this.before = compact(environmentVariables.get("GWBT_COMMIT_BEFORE"));
+        this.after = compact(environmentVariables.get("GWBT_COMMIT_AFTER"));
+        this.flags = compact(environmentVariables.get("GWBT_FLAGS"));
+        this.commit = compact(environmentVariables.get("GWBT_COMMIT"));
+        this.committer = compact(environmentVariables.get("GWBT_COMMIT_COMMITTER"));
+        this.tree = compact(environmentVariables.get("GWBT_COMMIT_TREE"));
+        this.repo = intern(environmentVariables.get("GWBT_REPO_FULL_NAME"));
+        this.repoName = intern(environmentVariables.get("GWBT_REPO_NAME"));
+        this.cloneUrl = intern(environmentVariables.get("GWBT_REPO_CLONE_URL"));
+        this.htmlUrl = intern(environmentVariables.get("GWBT_REPO_HTML_URL"));
+        this.release = compact(environmentVariables.get("GWBT_RELEASE"));
+        this.sender = intern(environmentVariables.get("GWBT_SENDER_LOGIN"));
+        this.pusher = intern(environmentVariables.get("GWBT_PUSHER_EMAIL"));
+    }
+
+    private GithubWebhookContextAction(GithubWebhookContextAction other) {
+        this.type = other.type;
+        this.ref = other.ref;
+        this.before = other.before;
+        this.after = other.after;
+        this.flags = other.flags;
+        this.commit = other.commit;
+        this.committer = other.committer;
+        this.tree = other.tree;
+        this.treeBuilt = other.treeBuilt;
+        this.priority = other.priority;
+        this.repo = other.repo;
+        this.repoName = other.repoName;
+        this.cloneUrl = other.cloneUrl;
+        this.htmlUrl = other.htmlUrl;
+        this.release = other.release;
+        this.sender = other.sender;
+        this.pusher = other.pusher;
+    }
+
+    /*
+     * Marker build: same context plus the number of the build that already built this tree successfully.
+     */
+    public GithubWebhookContextAction withTreeAlreadyBuilt(int buildNumber) {
+        GithubWebhookContextAction marker = new GithubWebhookContextAction(this);
+        marker.treeBuilt = buildNumber;
+        return marker;
+    }
+
+    /*
+     * Same context queued with a non-default priority, see GithubWebhookQueueSorter.
+     */
+    public GithubWebhookContextAction withPriority(BuildPriority priority) {
+        GithubWebhookContextAction prioritized = new GithubWebhookContextAction(this);
+        prioritized.priority = priority == BuildPriority.NORMAL ? null : priority;
+        return prioritized;
+    }
+
+    /*
+     * Re-intern after loading a build.xml, XStream creates fresh strings for every record.
+     */
+    protected Object readResolve() {
+        type = intern(type);
+        repo = intern(repo);
+        repoName = intern(repoName);
+        cloneUrl = intern(cloneUrl);
+        htmlUrl = intern(htmlUrl);
+        sender = intern(sender);
+        pusher = intern(pusher);
+        return this;
+    }
+
+    private static String compact(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static String intern(String value) {
+        return value == null || value.isEmpty() ? null : value.intern();
+    }
+
+    private static String orEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /*
+     * Same variables (and order) EnvironmentContributionAction used to contribute.
+     */
+    public Map<String, String> getEnvironment() {
+        Map<String, String> env = new LinkedHashMap<>();
+        env.put("GWBT_TYPE", orEmpty(type));
+        env.put("GWBT_REF", orEmpty(ref));
+        env.put("GWBT_TAG", EnvironmentContributionAction.normalizeTagNameOrEmptyString(ref));
+        env.put("GWBT_BRANCH", EnvironmentContributionAction.normalizeBranchNameOrEmptyString(ref));
+        env.put("GWBT_COMMIT_BEFORE", orEmpty(before));
+        env.put("GWBT_COMMIT_AFTER", orEmpty(after));
+        env.put("GWBT_FLAGS", orEmpty(flags));
+        env.put("GWBT_REPO_CLONE_URL", orEmpty(cloneUrl));
+        env.put("GWBT_REPO_HTML_URL", orEmpty(htmlUrl));
+        env.put("GWBT_REPO_FULL_NAME", orEmpty(repo));
+        env.put("GWBT_REPO_NAME", orEmpty(repoName));
+        if (commit != null) {
+            env.put("GWBT_COMMIT", commit);
+        }
+        if (committer != null) {
+            env.put("GWBT_COMMIT_COMMITTER", committer);
+        }
+        if (tree != null) {
+            env.put("GWBT_COMMIT_TREE", tree);
+        }
+        if (treeBuilt != null) {
+            env.put("GWBT_TREE_ALREADY_BUILT", String.valueOf(treeBuilt));
+        }
+        if (release != null) {
+            env.put("GWBT_RELEASE", release);
+        }
+        if (sender != null) {
+            env.put("GWBT_SENDER_LOGIN", sender);
+        }
+        if (pusher != null) {
+            env.put("GWBT_PUSHER_EMAIL", pusher);
+        }
+        return env;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    public String getCommit() {
+        return commit;
+    }
+
+    public String getTree() {
+        return tree;
+    }
+
+    public Integer getTreeBuilt() {
+        return treeBuilt;
+    }
+
+    public BuildPriority getPriority() {
+        return priority;
+    }
+
+    public String getFlags() {
+        return flags;
+    }
+
+    public String getRepo() {
+        return repo;
+    }
+
+    /*
+     * Keep distinct webhook contexts as distinct queue items (as the ParametersAction did),
+     * but collapse an identical redelivery into the item already waiting in the queue.
+     */
+    @Override
+    public boolean shouldSchedule(List<Action> actions) {
+        for (Action action : actions) {
+            if (this.equals(action)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GithubWebhookContextAction)) return false;
+        GithubWebhookContextAction other = (GithubWebhookContextAction) o;
+        return Objects.equals(type, other.type) && Objects.equals(ref, other.ref)
+                && Objects.equals(before, other.before) && Objects.equals(after, other.after)
+                && Objects.equals(flags, other.flags) && Objects.equals(commit, other.commit)
+                && Objects.equals(treeBuilt, other.treeBuilt)
+                && Objects.equals(repo, other.repo) && Objects.equals(release, other.release);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, ref, after, commit, repo);
+    }
+
+    /*
+     * Short element name instead of the fully qualified class name in every build.xml.
+     */
+    @Initializer(before = InitMilestone.PLUGINS_STARTED)
+    public static void addAliases() {
+        Run.XSTREAM2.alias("gwbt-context", GithubWebhookContextAction.class);
+    }
+
+    /*
+     * Provides the GWBT_* variables to both classic and pipeline runs.
+     */
+    @Extension
+    public static class ContextEnvironmentContributor extends EnvironmentContributor {
+
+        @Override
+        public void buildEnvironmentFor(Run r, EnvVars envs, TaskListener listener) {
+            GithubWebhookContextAction context = r.getAction(GithubWebhookContextAction.class);
+            if (context != null) {
+                envs.putAll(context.getEnvironment());
+            }
+        }
+    }
+}
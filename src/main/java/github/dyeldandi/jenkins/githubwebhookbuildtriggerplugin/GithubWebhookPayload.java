@@ -5,6 +5,8 @@
  */
 package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import com.google.gson.JsonDeserializationContext;
@@ -18,6 +20,7 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 import java.lang.reflect.Type;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 /**
  * GitHub Webhook JSON Pojo with only the parts that are interesting for us.
@@ -48,8 +51,8 @@ public class GithubWebhookPayload {
     private boolean releaseTag;
     private ArrayList<GithubWebhookPayloadJenkinsFlag> jFlags;
     private ArrayList<GithubWebhookPayloadJenkinsCommitFlags> jcFlags;
+    private transient boolean flagsFound;
     private static final Pattern flagPattern;
-    private transient Matcher flagMatcher;
 
     static {
         flagPattern = Pattern.compile("\\[jenkins:([a-zA-Z0-9_-]+)(?:=([a-zA-Z0-9/\\.,_-]+))?\\]");
@@ -62,17 +65,35 @@ public class GithubWebhookPayload {
     }
 
     public void findFlags() {
+        findFlags(System.currentTimeMillis());
+    }
+
+    /*
+     * Commit age is measured against receivedAtMillis, so deliveries replayed later
+     * (e.g. held while Jenkins was quieting down) see the same flags as when they arrived.
+     */
+    public void findFlags(long receivedAtMillis) {
+        if (flagsFound) {
+            return;
+        }
+        flagsFound = true;
 	if (commits != null) {
-            DateTime timeNow = new DateTime();
-            LOGGER.fine("findFlags: commits=" + commits.size() + " timeNow=" + timeNow);
+            boolean fine = LOGGER.isLoggable(Level.FINE);
+            if (fine) {
+                LOGGER.fine("findFlags: commits=" + commits.size() + " timeNow=" + new DateTime(receivedAtMillis));
+            }
             for (GithubWebhookPayloadCommit commit : commits) {
-                long ageMillis = timeNow.getMillis() - commit.timestamp.getMillis();
-                LOGGER.fine("findFlags: commit id=" + commit.getId() + " timestamp=" + commit.timestamp
-                        + " ageMillis=" + ageMillis + " message=" + commit.message);
+                long ageMillis = receivedAtMillis - commit.timestamp.getMillis();
+                if (fine) {
+                    LOGGER.fine("findFlags: commit id=" + commit.getId() + " timestamp=" + commit.timestamp
+                            + " ageMillis=" + ageMillis);
+                }
                 if (ageMillis < 600*1000) {
                     GithubWebhookPayloadJenkinsCommitFlags jcFlag = new GithubWebhookPayloadJenkinsCommitFlags(commit.getId(), commit.getCommitter());
+                    jcFlag.setTreeId(commit.getTree_id());
+                    jcFlag.setChangedPaths(commit.getChangedPaths());
                     ArrayList<GithubWebhookPayloadJenkinsFlag> jcFlagArray = jcFlag.getJFlags();
-                    flagMatcher = flagPattern.matcher(commit.message);
+                    Matcher flagMatcher = flagPattern.matcher(commit.message);
                     while(flagMatcher.find()) {
                         GithubWebhookPayloadJenkinsFlag newflag = null;
                         if (flagMatcher.group(2) != null) {
@@ -80,7 +101,9 @@ public class GithubWebhookPayload {
                         } else {
                             newflag = new GithubWebhookPayloadJenkinsFlag(flagMatcher.group(1));
                         }
-                        LOGGER.fine("findFlags: matched flag name=" + newflag.getName() + " value=" + newflag.getValue());
+                        if (fine) {
+                            LOGGER.fine("findFlags: matched flag name=" + newflag.getName() + " value=" + newflag.getValue());
+                        }
                         if (!jFlags.contains(newflag)) {
                             jFlags.add(newflag);
                         }
@@ -91,11 +114,13 @@ public class GithubWebhookPayload {
                     if (!jcFlagArray.isEmpty()) {
                         jcFlags.add(jcFlag);
                     }
-                } else {
+                } else if (fine) {
                     LOGGER.fine("findFlags: commit " + commit.getId() + " is older than 600s, skipping flag detection");
                 }
             }
-            LOGGER.fine("findFlags: result jFlags=" + jFlags.size() + " jcFlags=" + jcFlags.size());
+            if (fine) {
+                LOGGER.fine("findFlags: result jFlags=" + jFlags.size() + " jcFlags=" + jcFlags.size());
+            }
         } else {
             LOGGER.fine("findFlags: commits is null, skipping");
         }
@@ -207,6 +232,10 @@ public class GithubWebhookPayload {
         this.hook_id = hook_id;
     }
 
+    public GithubWebhookPayloadCommit getHead_commit() {
+        return head_commit;
+    }
+
     public class GithubWebhookPayloadRepository {
         private String clone_url;
         private String html_url;
@@ -300,6 +329,9 @@ public class GithubWebhookPayload {
         private String url;
         private GithubWebhookPayloadPerson author;
         private GithubWebhookPayloadPerson committer;
+        private ArrayList<String> added;
+        private ArrayList<String> removed;
+        private ArrayList<String> modified;
 
         public GithubWebhookPayloadCommit() {
 
@@ -352,6 +384,38 @@ public class GithubWebhookPayload {
         public GithubWebhookPayloadPerson getCommitter() {
             return committer;
         }
+
+        public ArrayList<String> getAdded() {
+            return added;
+        }
+
+        public ArrayList<String> getRemoved() {
+            return removed;
+        }
+
+        public ArrayList<String> getModified() {
+            return modified;
+        }
+
+        /*
+         * Paths added, modified or removed by this commit, null if the payload carries no file lists.
+         */
+        public Set<String> getChangedPaths() {
+            if (added == null && modified == null && removed == null) {
+                return null;
+            }
+            Set<String> paths = new HashSet<>();
+            if (added != null) {
+                paths.addAll(added);
+            }
+            if (modified != null) {
+                paths.addAll(modified);
+            }
+            if (removed != null) {
+                paths.addAll(removed);
+            }
+            return paths;
+        }
     }
 
     public class GithubWebhookPayloadJenkinsFlag {
@@ -400,6 +464,8 @@ public class GithubWebhookPayload {
         private ArrayList<GithubWebhookPayloadJenkinsFlag> jFlags;
 	private String ref;
         private GithubWebhookPayloadPerson committer;
+        private String treeId;
+        private Set<String> changedPaths;
 
         public GithubWebhookPayloadJenkinsCommitFlags(String ref, GithubWebhookPayloadPerson committer, ArrayList<GithubWebhookPayloadJenkinsFlag> jFlags) {
             this.jFlags = jFlags;
@@ -424,6 +490,25 @@ public class GithubWebhookPayload {
         public GithubWebhookPayloadPerson getCommitter() {
             return committer;
         }
+
+        public String getTreeId() {
+            return treeId;
+        }
+
+        public void setTreeId(String treeId) {
+            this.treeId = treeId;
+        }
+
+        /*
+         * Paths changed by the flagged commit itself, null if the payload carries no file lists.
+         */
+        public Set<String> getChangedPaths() {
+            return changedPaths;
+        }
+
+        public void setChangedPaths(Set<String> changedPaths) {
+            this.changedPaths = changedPaths;
+        }
     }
 
     public class GithubWebhookPayloadPerson {
@@ -466,21 +551,23 @@ public class GithubWebhookPayload {
     public static final class DateTimeConverter implements JsonDeserializer<DateTime>, JsonSerializer<DateTime>
     {
        //static final org.joda.time.format.DateTimeFormatter DATE_TIME_FORMATTER = ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
+       // joda formatters are immutable and thread-safe, build them once instead of per commit
+       private static final DateTimeFormatter PARSER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+       private static final DateTimeFormatter PRINTER = ISODateTimeFormat.dateTime();
     
        @Override
        public DateTime deserialize(final JsonElement je, final Type type, final JsonDeserializationContext jdc) throws JsonParseException {
-          if (je.getAsString().length() == 0) {
+          final String value = je.getAsString();
+          if (value.length() == 0) {
               return null;
           }
-          final DateTimeFormatter fmt = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
-          return fmt.parseDateTime(je.getAsString());
+          return PARSER.parseDateTime(value);
           //return je.getAsString().length() == 0 ? null : DATE_TIME_FORMATTER.parseDateTime(dateAsString);
        }
     
        @Override
        public JsonElement serialize(final DateTime src, final Type typeOfSrc, final JsonSerializationContext context) {
-          final DateTimeFormatter fmt = ISODateTimeFormat.dateTime();
-          return new JsonPrimitive(fmt.print(src));
+          return new JsonPrimitive(PRINTER.print(src));
           //return new JsonPrimitive(src == null ? StringUtils.EMPTY :DATE_TIME_FORMATTER.print(src)); 
        }
     }
@@ -0,0 +1,404 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2017 Bernhard Grünewaldt
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.admission.AdmissionController;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.admission.DeferralPolicy;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.dedup.SeenCommitFilter;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.pathfilter.GithubWebhookPathFilterProperty;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.routing.FlagJobSelector;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.routing.JobNameIndex;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling.BuildPriority;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling.SchedulingFlags;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.treecache.TreeIdCache;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.Job;
+import hudson.model.ParametersAction;
+import hudson.model.queue.QueueTaskFuture;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Flag detection, job routing and scheduling for GitHub webhook events.
+ *
+ * Used by the /receive endpoint after the signature check, and usable in-process by other plugins
+ * (e.g. relays from an internal event bus) to skip the JSON/HMAC/HTTP round trip:
+ *
+ *   GithubWebhookTriggerService service = GithubWebhookTriggerService.get();
+ *   TriggerResult result = service.trigger("push", payload);
+ *
+ * Callers are responsible for authenticating the events they pass in.
+ */
+@Extension
+public class GithubWebhookTriggerService {
+
+    /*
+     * Gson instances are thread-safe, build the adapters once instead of per delivery.
+     */
+    private static final Gson GSON = new GsonBuilder().registerTypeAdapter(new TypeToken<DateTime>(){}.getType(), new GithubWebhookPayload.DateTimeConverter()).create();
+
+    public static GithubWebhookTriggerService get() {
+        return ExtensionList.lookup(GithubWebhookTriggerService.class).get(GithubWebhookTriggerService.class);
+    }
+
+    /*
+     * One event of a batch.
+     */
+    public static final class TriggerRequest {
+        private final String eventType;
+        private final GithubWebhookPayload payload;
+        private final long receivedAt;
+
+        public TriggerRequest(String eventType, GithubWebhookPayload payload) {
+            this(eventType, payload, System.currentTimeMillis());
+        }
+
+        /*
+         * receivedAt is the reference time for the 600 second commit flag window.
+         */
+        public TriggerRequest(String eventType, GithubWebhookPayload payload, long receivedAt) {
+            this.eventType = eventType;
+            this.payload = payload;
+            this.receivedAt = receivedAt;
+        }
+
+        public String getEventType() {
+            return eventType;
+        }
+
+        public GithubWebhookPayload getPayload() {
+            return payload;
+        }
+
+        public long getReceivedAt() {
+            return receivedAt;
+        }
+    }
+
+    /*
+     * Decode a webhook body, returns null for an empty body.
+     */
+    public GithubWebhookPayload decode(String json) throws JsonSyntaxException {
+        return GSON.fromJson(json, GithubWebhookPayload.class);
+    }
+
+    /*
+     * Decode a webhook body and detect its flags and release, returns null for an empty body.
+     */
+    public GithubWebhookPayload decode(String json, String eventType, long receivedAt) throws JsonSyntaxException {
+        GithubWebhookPayload payload = decode(json);
+        if (payload == null) {
+            return null;
+        }
+        prepare(payload, eventType, receivedAt);
+        return payload;
+    }
+
+    public TriggerResult trigger(String eventType, GithubWebhookPayload payload) {
+        return trigger(new TriggerRequest(eventType, payload));
+    }
+
+    public TriggerResult trigger(TriggerRequest request) {
+        prepare(request.payload, request.eventType, request.receivedAt);
+        return triggerJobs(request.payload, JobNameIndex.get().getSnapshot());
+    }
+
+    /*
+     * Handles all events against the same snapshot of the job index.
+     */
+    public List<TriggerResult> trigger(List<TriggerRequest> requests) {
+        JobNameIndex.Snapshot jobs = JobNameIndex.get().getSnapshot();
+        List<TriggerResult> results = new ArrayList<>(requests.size());
+        for (TriggerRequest request : requests) {
+            prepare(request.payload, request.eventType, request.receivedAt);
+            results.add(triggerJobs(request.payload, jobs));
+        }
+        return results;
+    }
+
+    /*
+     * receivedAt is when GitHub sent the delivery, flags are only detected in commits younger than 600s at that time.
+     */
+    void prepare(GithubWebhookPayload payload, String eventType, long receivedAt) {
+        payload.setType(eventType);
+        payload.findFlags(receivedAt);
+        payload.findRelease();
+    }
+
+    /*
+     * Only flagged pushes and tag creation trigger jobs, see triggerJobs.
+     */
+    public boolean isTriggering(GithubWebhookPayload payload) {
+        if ("push".equals(payload.getType())) {
+            return payload.hasJCFlags();
+        }
+        return "create".equals(payload.getType()) && "tag".equals(payload.getRef_type());
+    }
+
+    /*
+     * What a delivery asks to build: one entry per flagged commit of a push, one for a tag creation.
+     */
+    static final class BuildRequest {
+        // null for a tag creation
+        final GithubWebhookPayload.GithubWebhookPayloadJenkinsCommitFlags commitFlags;
+        final String jobNamePrefix;
+        final EnvironmentContributionAction environment;
+        final GithubWebhookContextAction contextAction;
+        // null unless legacy build parameters are enabled
+        final ParametersAction parameters;
+
+        private BuildRequest(GithubWebhookPayload.GithubWebhookPayloadJenkinsCommitFlags commitFlags, String jobNamePrefix,
+                             EnvironmentContributionAction environment, boolean legacyParameters) {
+            this.commitFlags = commitFlags;
+            this.jobNamePrefix = jobNamePrefix;
+            this.environment = environment;
+            this.contextAction = environment.toContextAction();
+            this.parameters = legacyParameters ? environment.transform() : null;
+        }
+
+        Set<String> getChangedPaths() {
+            return commitFlags == null ? null : commitFlags.getChangedPaths();
+        }
+
+        String getCommit() {
+            return commitFlags == null ? null : commitFlags.getRef();
+        }
+    }
+
+    /*
+     * Everything triggerJobs derives from a prepared payload before it looks at jobs.
+     * This is where a delivery allocates most, see AllocationBudgetTest.
+     */
+    List<BuildRequest> getBuildRequests(GithubWebhookPayload githubWebhookPayload, boolean legacyParameters) {
+        List<BuildRequest> requests = new ArrayList<>();
+        if ("push".equals(githubWebhookPayload.getType()) && githubWebhookPayload.hasJCFlags()) {
+            EnvironmentContributionAction environmentContributionAction = new EnvironmentContributionAction(githubWebhookPayload);
+            String jobNamePrefix = this.getJobName(githubWebhookPayload);
+            for (GithubWebhookPayload.GithubWebhookPayloadJenkinsCommitFlags cflags : githubWebhookPayload.getJCFlags()) {
+                EnvironmentContributionAction commitEnvironmentContributionAction = new EnvironmentContributionAction(environmentContributionAction);
+                commitEnvironmentContributionAction.switchToCommitFlags(cflags.getRef(), cflags.getJFlags(), cflags.getCommitter(), cflags.getTreeId());
+                requests.add(new BuildRequest(cflags, jobNamePrefix, commitEnvironmentContributionAction, legacyParameters));
+            }
+        } else if ("create".equals(githubWebhookPayload.getType()) && "tag".equals(githubWebhookPayload.getRef_type())) {
+            requests.add(new BuildRequest(null, this.getJobName(githubWebhookPayload), new EnvironmentContributionAction(githubWebhookPayload), legacyParameters));
+        }
+        return requests;
+    }
+
+    TriggerResult triggerJobs(GithubWebhookPayload githubWebhookPayload, JobNameIndex.Snapshot jobs) {
+        TriggerResult result = new TriggerResult(githubWebhookPayload.getType());
+        StringBuilder info = result.info();
+        GithubWebhookBuildTriggerPluginBuilder.Settings config = GithubWebhookBuildTriggerPluginBuilder.getSettings();
+
+        info.append("Type: ").append(githubWebhookPayload.getType()).append("\n");
+
+        for (BuildRequest request : this.getBuildRequests(githubWebhookPayload, config.isLegacyParameters())) {
+            if (request.commitFlags != null) {
+                info.append("Flags: ");
+                for (GithubWebhookPayload.GithubWebhookPayloadJenkinsFlag flag : request.commitFlags.getJFlags()) {
+                    if (flag.hasValue()) {
+                        info.append("[").append(flag.getName()).append("=").append(flag.getValue()).append("] ");
+                    } else {
+                        info.append("[").append(flag.getName()).append("] ");
+                    }
+                    info.append("\n");
+                }
+                info.append("\n");
+            }
+            info.append("Triggering jobs starting with "+request.jobNamePrefix+"\n");
+            info.append("Environment: \n");
+            info.append(request.environment.getEnvVarInfo());
+            info.append("Triggered: "+this.triggerJob(jobs, request, config, result)+"\n");
+        }
+        return result;
+    }
+
+    private String triggerJob(JobNameIndex.Snapshot index, BuildRequest request, GithubWebhookBuildTriggerPluginBuilder.Settings config, TriggerResult result) {
+        String jobNamePrefix = request.jobNamePrefix;
+        Set<String> changedPaths = request.getChangedPaths();
+        String commit = request.getCommit();
+        StringBuilder jobsTriggered = new StringBuilder();
+        Set<String> jobsAlreadyTriggered = new HashSet<>();
+        StringBuilder causeNote = new StringBuilder();
+        Cause cause = new Cause.RemoteCause("github.com", causeNote.toString());
+
+        Collection<Job> jobs = index.getJobsStartingWith(jobNamePrefix);
+        if (jobs.isEmpty() && !index.hasReadableJobs()) {
+            jobsTriggered.append("   WARNING NO JOBS FOUND!\n");
+            jobsTriggered.append("      You either have no jobs or if you are using matrix-based security,\n");
+            jobsTriggered.append("      please give the following rights to 'Anonymous':\n");
+            jobsTriggered.append("      'Job' -> build, discover, read.\n");
+        }
+        GithubWebhookContextAction contextAction = request.contextAction;
+        TreeIdCache.Mode treeCacheMode = config.getTreeCacheMode();
+        long seenCommitWindowMillis = config.getSeenCommitWindow() * 1000L;
+        int quietPeriod = SchedulingFlags.getQuietPeriod(contextAction.getFlags());
+        BuildPriority priority = config.getPriorityPolicy().apply(contextAction.getRepo(), SchedulingFlags.getPriority(contextAction.getFlags()));
+        if (priority != BuildPriority.NORMAL) {
+            contextAction = contextAction.withPriority(priority);
+        }
+        DeferralPolicy deferralPolicy = config.getDeferralPolicy();
+        boolean deferrable = deferralPolicy != null
+                && deferralPolicy.isDeferrable(contextAction.getType(), contextAction.getRepo(), contextAction.getFlags(), priority);
+        Set<String> selectedJobs = this.getJobsSelectedByFlags(jobs, jobNamePrefix, contextAction.getFlags(), config.getFlagJobSelector());
+        for (Job job: jobs) {
+            if (jobsAlreadyTriggered.add(job.getName())) {
+                if (selectedJobs != null && !selectedJobs.contains(job.getName())) {
+                    jobsTriggered.append("   JOB>         ").append(job.getName()).append(" NOT SELECTED BY FLAGS. SKIPPING.\n");
+                    result.add(job.getName(), commit, TriggerResult.Status.NOT_SELECTED_BY_FLAGS);
+                    continue;
+                }
+                GithubWebhookPathFilterProperty pathFilter = (GithubWebhookPathFilterProperty) job.getProperty(GithubWebhookPathFilterProperty.class);
+                if (pathFilter != null && !pathFilter.isTriggeredBy(changedPaths)) {
+                    jobsTriggered.append("   JOB>         ").append(job.getName()).append(" NO MATCHING CHANGED PATHS. SKIPPING.\n");
+                    result.add(job.getName(), commit, TriggerResult.Status.NO_MATCHING_CHANGED_PATHS);
+                    continue;
+                }
+                GithubWebhookContextAction jobContextAction = contextAction;
+                TriggerResult.Status triggeredStatus = TriggerResult.Status.TRIGGERED;
+                if (treeCacheMode != TreeIdCache.Mode.OFF && contextAction.getTree() != null) {
+                    Integer treeBuilt = TreeIdCache.get().getLastSuccessfulBuild(job.getFullName(), contextAction.getTree());
+                    if (treeBuilt != null && treeCacheMode == TreeIdCache.Mode.SKIP) {
+                        jobsTriggered.append("   JOB>         ").append(job.getName()).append(" TREE ALREADY BUILT BY #").append(treeBuilt).append(". SKIPPING.\n");
+                        result.add(job.getName(), commit, TriggerResult.Status.TREE_ALREADY_BUILT);
+                        continue;
+                    } else if (treeBuilt != null) {
+                        jobsTriggered.append("   JOB>         ").append(job.getName()).append(" TREE ALREADY BUILT BY #").append(treeBuilt).append(". MARKER BUILD.\n");
+                        jobContextAction = contextAction.withTreeAlreadyBuilt(treeBuilt);
+                        triggeredStatus = TriggerResult.Status.MARKER_BUILD;
+                    }
+                }
+                String seenKey = seenCommitWindowMillis > 0 && commit != null
+                        ? SeenCommitFilter.key(contextAction.getRepo(), commit, contextAction.getFlags(), job.getFullName()) : null;
+                if (seenKey != null && job.isBuildable() && SeenCommitFilter.get().contains(seenKey, seenCommitWindowMillis)) {
+                    jobsTriggered.append("   JOB>         ").append(job.getName()).append(" ALREADY TRIGGERED FOR THIS COMMIT. SKIPPING.\n");
+                    result.add(job.getName(), commit, TriggerResult.Status.ALREADY_TRIGGERED);
+                    continue;
+                }
+                if (deferrable && job.isBuildable() && AdmissionController.get().shouldDefer(job)) {
+                    List<Action> actions = new ArrayList<>();
+                    actions.add(jobContextAction);
+                    if (request.parameters != null && job instanceof WorkflowJob) {
+                        actions.add(request.parameters);
+                    }
+                    actions.add(new CauseAction(cause));
+                    AdmissionController.get().defer(job, contextAction.getRepo(), contextAction.getRef(), quietPeriod, actions);
+                    jobsTriggered.append("   JOB>         ").append(job.getName()).append(" QUEUE OVERLOADED. DEFERRED.\n");
+                    result.add(job.getName(), commit, TriggerResult.Status.DEFERRED);
+                    continue;
+                }
+                if (job instanceof WorkflowJob) {
+                    WorkflowJob wjob = (WorkflowJob) job;
+                    if (wjob.isBuildable()) {
+                        QueueTaskFuture<WorkflowRun> scheduled;
+                        if (request.parameters != null) {
+                            scheduled = wjob.scheduleBuild2(quietPeriod, jobContextAction, request.parameters, new CauseAction(cause));
+                        } else {
+                            scheduled = wjob.scheduleBuild2(quietPeriod, jobContextAction, new CauseAction(cause));
+                        }
+                        if (scheduled == null) {
+                            jobsTriggered.append("   WORKFLOWJOB> ").append(job.getName()).append(" NOT SCHEDULED BY THE QUEUE. SKIPPING.\n");
+                            result.add(job.getName(), commit, TriggerResult.Status.NOT_SCHEDULED);
+                            continue;
+                        }
+                        jobsTriggered.append("   WORKFLOWJOB> ").append(job.getName()).append(" TRIGGERED\n");
+                        if (seenKey != null) {
+                            SeenCommitFilter.get().add(seenKey, seenCommitWindowMillis);
+                        }
+                        result.add(job.getName(), commit, triggeredStatus);
+                    } else {
+                        jobsTriggered.append("   WORKFLOWJOB> ").append(job.getName()).append(" NOT BUILDABLE. SKIPPING.\n");
+                        result.add(job.getName(), commit, TriggerResult.Status.NOT_BUILDABLE);
+                    }
+                } else {
+                    AbstractProject projectScheduable = (AbstractProject) job;
+                    if (job.isBuildable()) {
+                        if (!projectScheduable.scheduleBuild(quietPeriod, cause, jobContextAction)) {
+                            jobsTriggered.append("   CLASSICJOB>  ").append(job.getName()).append(" NOT SCHEDULED BY THE QUEUE. SKIPPING.\n");
+                            result.add(job.getName(), commit, TriggerResult.Status.NOT_SCHEDULED);
+                            continue;
+                        }
+                        jobsTriggered.append("   CLASSICJOB>  ").append(job.getName()).append(" TRIGGERED\n");
+                        if (seenKey != null) {
+                            SeenCommitFilter.get().add(seenKey, seenCommitWindowMillis);
+                        }
+                        result.add(job.getName(), commit, triggeredStatus);
+                    } else {
+                        jobsTriggered.append("   CLASSICJOB>  ").append(job.getName()).append(" NOT BUILDABLE. SKIPPING.\n");
+                        result.add(job.getName(), commit, TriggerResult.Status.NOT_BUILDABLE);
+                    }
+                }
+            }
+        }
+        return jobsTriggered.toString();
+    }
+
+    /*
+     * Jobs targeted by the flags if flag job selection is enabled and at least one flag targets an existing job,
+     * otherwise null: every job starting with jobNamePrefix is triggered.
+     */
+    private Set<String> getJobsSelectedByFlags(Collection<Job> jobs, String jobNamePrefix, String flags, FlagJobSelector selector) {
+        if (selector == null) {
+            return null;
+        }
+        Set<String> targets = selector.getTargetJobNames(jobNamePrefix, flags);
+        if (targets.isEmpty()) {
+            return null;
+        }
+        Set<String> selected = new HashSet<>();
+        for (Job job : jobs) {
+            if (targets.contains(job.getName())) {
+                selected.add(job.getName());
+            }
+        }
+        return selected.isEmpty() ? null : selected;
+    }
+
+    /*
+     * converts "codeclou/foo" to "codeclou---foo"
+     */
+    private String normalizeRepoFullName(String reponame) {
+        return reponame.replace("/", "---");
+    }
+
+    private String normalizeTagName(String reponame, String ref) {
+        if (ref.contains("/")) {
+            String[] refsplit = ref.split("/", 2);
+            return reponame.replace("/", "---") + "---" + refsplit[0];
+        } else {
+            return reponame.replace("/", "---") + "---" + ref;
+        }
+    }
+
+    private String getJobName(GithubWebhookPayload payload) {
+        if (payload.getType().equals("push")) {
+            return this.normalizeRepoFullName(payload.getRepository().getFull_name());
+        } else if (payload.getType().equals("create") && payload.getRef_type().equals("tag") && payload.isReleaseTag()) {
+            return "RELEASE---" + this.normalizeRepoFullName(payload.getRepository().getFull_name());
+        } else if (payload.getType().equals("create") && payload.getRef_type().equals("tag")) {
+            return "TAG---" + this.normalizeTagName(payload.getRepository().getFull_name(), payload.getRef());
+        } else {
+            return "EVERYTHING---" + this.normalizeRepoFullName(payload.getRepository().getFull_name());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.webhooksecret.GitHubWebhookUtility;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Does the work of the first delivery once at startup, so that deliveries arriving right after
+ * a restart are not slowed down (and timed out by GitHub) by cold lookups and class loading:
+ * loads the global config, keys the HMAC, creates the Gson adapters and parses the sample payloads
+ * bundled in warmup/ (a ping and a flagged push, also used by the tests) the way a delivery is parsed.
+ * The job name index is built by JobNameIndex once all items are loaded.
+ *
+ * /github-webhook-build-trigger/ready answers 503 until this is done and Jenkins is fully up.
+ */
+public final class StartupWarmup {
+
+    private static final Logger LOGGER = Logger.getLogger(StartupWarmup.class.getName());
+
+    private static final String[] SAMPLE_PAYLOADS = {"warmup/push-payload.json", "warmup/ping-payload.json"};
+
+    private static volatile boolean warmedUp;
+
+    private StartupWarmup() {
+    }
+
+    public static boolean isReady() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return warmedUp && jenkins != null && jenkins.getInitLevel() == InitMilestone.COMPLETED;
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void warmUp() {
+        long start = System.currentTimeMillis();
+        try {
+            GithubWebhookBuildTriggerPluginBuilder.DescriptorImpl descriptor =
+                    Jenkins.getInstance().getDescriptorByType(GithubWebhookBuildTriggerPluginBuilder.DescriptorImpl.class);
+            GithubWebhookBuildTriggerPluginBuilder.Settings config = descriptor == null ? null : descriptor.getSettings();
+            String webhookSecret = config == null ? null : config.getWebhookSecret();
+            GitHubWebhookUtility.prepare(webhookSecret);
+
+            GithubWebhookTriggerService triggerService = GithubWebhookTriggerService.get();
+            for (String sample : SAMPLE_PAYLOADS) {
+                String json = readSample(sample);
+                GithubWebhookPayload payload = triggerService.decode(json);
+                if (payload == null || payload.getHook_id() != null) {
+                    continue;
+                }
+                // flags are only detected in commits younger than 600s, parse as if just pushed
+                long receivedAt = payload.getHead_commit() != null && payload.getHead_commit().getTimestamp() != null
+                        ? payload.getHead_commit().getTimestamp().getMillis() : System.currentTimeMillis();
+                payload = triggerService.decode(json, "push", receivedAt);
+                for (GithubWebhookTriggerService.BuildRequest request : triggerService.getBuildRequests(payload, config == null || config.isLegacyParameters())) {
+                    request.contextAction.getEnvironment();
+                }
+                if (webhookSecret != null && !webhookSecret.isEmpty()) {
+                    GitHubWebhookUtility.verifySignature(json, "sha1=", webhookSecret);
+                }
+            }
+            LOGGER.info("warm-up done in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException | RuntimeException ex) {
+            // not being warmed up only makes the first deliveries slower
+            LOGGER.log(Level.WARNING, "warm-up failed", ex);
+        } finally {
+            warmedUp = true;
+        }
+    }
+
+    private static String readSample(String name) throws IOException {
+        InputStream in = StartupWarmup.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("missing sample payload " + name);
+        }
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
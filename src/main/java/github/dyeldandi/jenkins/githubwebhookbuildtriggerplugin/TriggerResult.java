@@ -0,0 +1,120 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Outcome of one webhook event handled by GithubWebhookTriggerService: which jobs were triggered
+ * or skipped and why, plus the human readable report the HTTP endpoint returns.
+ */
+public final class TriggerResult {
+
+    public enum Status {
+        TRIGGERED(true),
+        /* triggered with GWBT_TREE_ALREADY_BUILT set */
+        MARKER_BUILD(true),
+        NOT_BUILDABLE(false),
+        NOT_SELECTED_BY_FLAGS(false),
+        NO_MATCHING_CHANGED_PATHS(false),
+        TREE_ALREADY_BUILT(false),
+        /* same commit and flags triggered this job within the seen commit window */
+        ALREADY_TRIGGERED(false),
+        /* held by the AdmissionController until the Queue drains */
+        DEFERRED(false),
+        /* the Queue refused the build, e.g. a QueueDecisionHandler vetoed it */
+        NOT_SCHEDULED(false);
+
+        private final boolean triggered;
+
+        Status(boolean triggered) {
+            this.triggered = triggered;
+        }
+
+        public boolean isTriggered() {
+            return triggered;
+        }
+    }
+
+    public static final class JobResult {
+        private final String jobName;
+        private final String commit;
+        private final Status status;
+
+        JobResult(String jobName, String commit, Status status) {
+            this.jobName = jobName;
+            this.commit = commit;
+            this.status = status;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        /*
+         * Flagged commit the job was (not) triggered for, null for tag events.
+         */
+        public String getCommit() {
+            return commit;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+    }
+
+    private final String eventType;
+    private final List<JobResult> jobs = new ArrayList<>();
+    private final StringBuilder info = new StringBuilder();
+
+    TriggerResult(String eventType) {
+        this.eventType = eventType;
+    }
+
+    void add(String jobName, String commit, Status status) {
+        jobs.add(new JobResult(jobName, commit, status));
+    }
+
+    StringBuilder info() {
+        return info;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public List<JobResult> getJobs() {
+        return Collections.unmodifiableList(jobs);
+    }
+
+    public List<JobResult> getTriggeredJobs() {
+        List<JobResult> triggered = new ArrayList<>();
+        for (JobResult job : jobs) {
+            if (job.status.isTriggered()) {
+                triggered.add(job);
+            }
+        }
+        return triggered;
+    }
+
+    public List<JobResult> getSkippedJobs() {
+        List<JobResult> skipped = new ArrayList<>();
+        for (JobResult job : jobs) {
+            if (!job.status.isTriggered()) {
+                skipped.add(job);
+            }
+        }
+        return skipped;
+    }
+
+    /*
+     * Same text the /receive endpoint reports (without banner).
+     */
+    public String getInfo() {
+        return info.toString();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.admission;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.GithubWebhookContextAction;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.Label;
+import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+import jenkins.model.ParameterizedJobMixIn;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+/*
+ * Defers non-critical triggers (see DeferralPolicy) while the Queue is overloaded, instead of
+ * adding more items to a Queue every maintenance pass has to walk.
+ *
+ * The Queue counts as overloaded once it holds 'high' items and until it drained to 'low' items.
+ * A deferrable trigger is still scheduled right away if an executor of the job's label is idle,
+ * since it will not wait in the Queue. Deferred triggers are kept per repository and only the
+ * newest commit per (job, ref) is kept: a newer push replaces the deferred one. ReleaseWork
+ * schedules them, round robin over the repositories, once the Queue is below 'low', without
+ * filling it above 'low' again. Deferred triggers are not persisted; beyond MAX_DEFERRED
+ * triggers are scheduled instead of deferred.
+ */
+public final class AdmissionController {
+
+    private static final Logger LOGGER = Logger.getLogger(AdmissionController.class.getName());
+
+    private static final int MAX_DEFERRED = 1000;
+    private static final long SAMPLE_MILLIS = 1000;
+
+    private static final AdmissionController INSTANCE = new AdmissionController();
+
+    private final LinkedHashMap<String, LinkedHashMap<String, Deferred>> deferred = new LinkedHashMap<>();
+    private int deferredCount;
+    private boolean overloaded;
+    private long sampledAt;
+    private int queueLength;
+    private int ownQueued;
+
+    private AdmissionController() {
+    }
+
+    public static AdmissionController get() {
+        return INSTANCE;
+    }
+
+    /*
+     * True if a deferrable trigger of job should be deferred now.
+     */
+    public synchronized boolean shouldDefer(Job job) {
+        GithubWebhookBuildTriggerPluginBuilder.Settings config = getConfig();
+        if (!config.isAdmissionControl() || deferredCount >= MAX_DEFERRED) {
+            return false;
+        }
+        sample(config, false);
+        return overloaded && !hasIdleExecutor(job);
+    }
+
+    /*
+     * actions are the ones the build would have been scheduled with, including its CauseAction.
+     */
+    public synchronized void defer(Job job, String repo, String ref, int quietPeriod, List<Action> actions) {
+        LinkedHashMap<String, Deferred> repoDeferred = deferred.get(repo);
+        if (repoDeferred == null) {
+            repoDeferred = new LinkedHashMap<>();
+            deferred.put(repo, repoDeferred);
+        }
+        // a newer commit for the same ref takes over the place of the deferred one
+        if (repoDeferred.put(job.getFullName() + " " + ref, new Deferred(job.getFullName(), quietPeriod, actions)) == null) {
+            deferredCount++;
+        }
+    }
+
+    public synchronized int getDeferredCount() {
+        return deferredCount;
+    }
+
+    void release() {
+        List<Deferred> released = take();
+        if (released.isEmpty()) {
+            return;
+        }
+        Jenkins jenkins = Jenkins.getInstance();
+        int scheduled = 0;
+        for (Deferred trigger : released) {
+            Job job = jenkins.getItemByFullName(trigger.jobFullName, Job.class);
+            if (job == null || !job.isBuildable()) {
+                continue;
+            }
+            if (ParameterizedJobMixIn.scheduleBuild2(job, trigger.quietPeriod, trigger.actions.toArray(new Action[trigger.actions.size()])) != null) {
+                scheduled++;
+            }
+        }
+        LOGGER.info("release: scheduled " + scheduled + " deferred builds, " + getDeferredCount() + " still deferred");
+    }
+
+    private synchronized List<Deferred> take() {
+        List<Deferred> taken = new ArrayList<>();
+        if (deferredCount == 0) {
+            return taken;
+        }
+        GithubWebhookBuildTriggerPluginBuilder.Settings config = getConfig();
+        int budget = deferredCount;
+        if (config.isAdmissionControl()) {
+            sample(config, true);
+            if (overloaded) {
+                return taken;
+            }
+            budget = Math.max(1, config.getAdmissionLowWatermark() - queueLength);
+        }
+        while (taken.size() < budget && deferredCount > 0) {
+            Iterator<LinkedHashMap<String, Deferred>> repos = deferred.values().iterator();
+            while (repos.hasNext() && taken.size() < budget) {
+                LinkedHashMap<String, Deferred> repoDeferred = repos.next();
+                Iterator<Deferred> oldest = repoDeferred.values().iterator();
+                taken.add(oldest.next());
+                oldest.remove();
+                deferredCount--;
+                if (repoDeferred.isEmpty()) {
+                    repos.remove();
+                }
+            }
+        }
+        return taken;
+    }
+
+    /*
+     * Queue length and the number of items triggered by this plugin, at most once per SAMPLE_MILLIS
+     * unless forced. Switches between overloaded and not with hysteresis between the two watermarks.
+     */
+    private void sample(GithubWebhookBuildTriggerPluginBuilder.Settings config, boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - sampledAt < SAMPLE_MILLIS) {
+            return;
+        }
+        sampledAt = now;
+        List<Queue.Item> items = Jenkins.getInstance().getQueue().getApproximateItemsQuickly();
+        int own = 0;
+        for (Queue.Item item : items) {
+            if (item.getAction(GithubWebhookContextAction.class) != null) {
+                own++;
+            }
+        }
+        queueLength = items.size();
+        ownQueued = own;
+        if (!overloaded && queueLength >= config.getAdmissionHighWatermark()) {
+            overloaded = true;
+            LOGGER.info("Queue overloaded (" + queueLength + " items, " + ownQueued + " triggered by GitHub webhooks), deferring non-critical triggers");
+        } else if (overloaded && queueLength <= config.getAdmissionLowWatermark()) {
+            overloaded = false;
+            LOGGER.info("Queue drained (" + queueLength + " items, " + ownQueued + " triggered by GitHub webhooks), releasing " + deferredCount + " deferred triggers");
+        }
+    }
+
+    private static boolean hasIdleExecutor(Job job) {
+        Label label = job instanceof AbstractProject ? ((AbstractProject) job).getAssignedLabel() : null;
+        if (label != null) {
+            return label.getIdleExecutors() > 0;
+        }
+        for (Computer computer : Jenkins.getInstance().getComputers()) {
+            if (computer.isOnline() && computer.isAcceptingTasks() && computer.countIdle() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static GithubWebhookBuildTriggerPluginBuilder.Settings getConfig() {
+        return GithubWebhookBuildTriggerPluginBuilder.getSettings();
+    }
+
+    private static final class Deferred {
+        private final String jobFullName;
+        private final int quietPeriod;
+        private final List<Action> actions;
+
+        private Deferred(String jobFullName, int quietPeriod, List<Action> actions) {
+            this.jobFullName = jobFullName;
+            this.quietPeriod = quietPeriod;
+            this.actions = actions;
+        }
+    }
+
+    @Extension
+    public static class ReleaseWork extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return 10 * 1000;
+        }
+
+        @Override
+        protected void doRun() {
+            AdmissionController.get().release();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.admission;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling.BuildPriority;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling.PriorityPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/*
+ * Which triggers are non-critical and may be deferred while the Queue is overloaded. One rule per line:
+ *   event=create
+ *   repo=codeclou/docs-*
+ *   flag=docs
+ * A trigger is deferrable if any rule matches its event type, repository full name ('*' wildcard)
+ * or one of its flag names. Triggers requesting high priority are never deferred.
+ */
+public final class DeferralPolicy {
+
+    private final List<String> eventTypes;
+    private final List<Pattern> repos;
+    private final List<String> flags;
+
+    private DeferralPolicy(List<String> eventTypes, List<Pattern> repos, List<String> flags) {
+        this.eventTypes = Collections.unmodifiableList(eventTypes);
+        this.repos = Collections.unmodifiableList(repos);
+        this.flags = Collections.unmodifiableList(flags);
+    }
+
+    public static DeferralPolicy parse(String text) {
+        List<String> eventTypes = new ArrayList<>();
+        List<Pattern> repos = new ArrayList<>();
+        List<String> flags = new ArrayList<>();
+        if (text != null) {
+            for (String line : text.split("\n")) {
+                String trimmed = line.trim();
+                int separator = trimmed.indexOf('=');
+                if (trimmed.isEmpty() || trimmed.startsWith("#") || separator <= 0) {
+                    continue;
+                }
+                String kind = trimmed.substring(0, separator).trim();
+                String value = trimmed.substring(separator + 1).trim();
+                if (value.isEmpty()) {
+                    continue;
+                }
+                if ("event".equals(kind)) {
+                    eventTypes.add(value);
+                } else if ("repo".equals(kind)) {
+                    repos.add(PriorityPolicy.toRepoPattern(value));
+                } else if ("flag".equals(kind)) {
+                    flags.add(value);
+                }
+            }
+        }
+        return new DeferralPolicy(eventTypes, repos, flags);
+    }
+
+    public boolean isEmpty() {
+        return eventTypes.isEmpty() && repos.isEmpty() && flags.isEmpty();
+    }
+
+    /*
+     * flags in the normalized GWBT_FLAGS form.
+     */
+    public boolean isDeferrable(String eventType, String repoFullName, String flags, BuildPriority priority) {
+        if (priority == BuildPriority.HIGH) {
+            return false;
+        }
+        if (eventType != null && eventTypes.contains(eventType)) {
+            return true;
+        }
+        if (repoFullName != null) {
+            for (Pattern repo : repos) {
+                if (repo.matcher(repoFullName).matches()) {
+                    return true;
+                }
+            }
+        }
+        if (flags != null && !flags.isEmpty() && !this.flags.isEmpty()) {
+            for (String flag : flags.split(" ")) {
+                int separator = flag.indexOf('=');
+                if (this.flags.contains(separator < 0 ? flag : flag.substring(0, separator))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
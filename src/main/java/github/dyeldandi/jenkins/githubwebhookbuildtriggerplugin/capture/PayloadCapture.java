@@ -0,0 +1,287 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.capture;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.joda.time.DateTime;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Sampled capture of raw deliveries (GitHub's headers and the body) for debugging, instead of logging
+ * request bodies at FINE.
+ *
+ * The request thread only decides whether to sample and offers the delivery to a bounded
+ * queue; when the queue is full the delivery is dropped, never waited for. A single daemon
+ * thread appends the deliveries to JENKINS_HOME/github-webhook-build-trigger-captures/capture.log
+ * (capture.log.gz when compressed) and rotates it to capture.log.1 ... capture.log.4 once it
+ * reaches the configured size. Compressed files are a sequence of gzip members, zcat reads them.
+ *
+ * With a sampling rate of 0 capture() returns after one volatile read.
+ */
+public final class PayloadCapture {
+
+    private static final Logger LOGGER = Logger.getLogger(PayloadCapture.class.getName());
+
+    private static final String DIRECTORY_NAME = "github-webhook-build-trigger-captures";
+    private static final String FILE_NAME = "capture.log";
+    private static final int MAX_FILES = 5;
+    private static final int QUEUE_CAPACITY = 500;
+
+    private static final PayloadCapture INSTANCE = new PayloadCapture();
+
+    private final BlockingQueue<Captured> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread writer;
+
+    private PayloadCapture() {
+    }
+
+    public static PayloadCapture get() {
+        return INSTANCE;
+    }
+
+    /*
+     * Called on the request thread after the body was read.
+     */
+    public void capture(HttpServletRequest request, String requestBody) {
+        GithubWebhookBuildTriggerPluginBuilder.Settings config = GithubWebhookBuildTriggerPluginBuilder.getSettings();
+        if (config == null) {
+            return;
+        }
+        int samplePercent = config.getCaptureSamplePercent();
+        if (samplePercent <= 0) {
+            return;
+        }
+        String eventType = request.getHeader("x-github-event");
+        Set<String> eventTypes = config.getCaptureEventTypeSet();
+        if (!eventTypes.isEmpty() && (eventType == null || !eventTypes.contains(eventType.toLowerCase(Locale.ENGLISH)))) {
+            return;
+        }
+        if (samplePercent < 100 && ThreadLocalRandom.current().nextInt(100) >= samplePercent) {
+            return;
+        }
+        List<String> headers = new ArrayList<>();
+        Enumeration<String> names = request.getHeaderNames();
+        while (names != null && names.hasMoreElements()) {
+            String name = names.nextElement();
+            String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+            // deliveries are captured before the signature is checked, so only keep the headers GitHub sends,
+            // never X-Forwarded-*, cookies or credentials added by proxies in front of Jenkins
+            if (lowerCaseName.startsWith("x-github-") || lowerCaseName.startsWith("x-hub-signature")
+                    || lowerCaseName.equals("content-type") || lowerCaseName.equals("user-agent")) {
+                headers.add(name + ": " + request.getHeader(name));
+            }
+        }
+        if (!queue.offer(new Captured(System.currentTimeMillis(), headers, requestBody))) {
+            dropped.incrementAndGet();
+            return;
+        }
+        startWriter();
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "GWBT payload capture writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Terminator
+    public static void stop() {
+        Thread thread;
+        synchronized (INSTANCE) {
+            thread = INSTANCE.writer;
+            INSTANCE.writer = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void write() {
+        Output output = null;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Captured captured = queue.poll(1, TimeUnit.MINUTES);
+                if (captured == null) {
+                    // idle: release the file handle until the next delivery
+                    output = close(output);
+                    continue;
+                }
+                try {
+                    GithubWebhookBuildTriggerPluginBuilder.Settings config = GithubWebhookBuildTriggerPluginBuilder.getSettings();
+                    boolean gzip = config.isCaptureGzip();
+                    long maxBytes = config.getCaptureMaxFileSize() * 1024L * 1024L;
+                    if (output != null && output.gzip != gzip) {
+                        output = close(output);
+                    }
+                    if (output == null) {
+                        output = new Output(getFile(gzip), gzip);
+                    }
+                    if (output.getSize() >= maxBytes) {
+                        output = close(output);
+                        rotate(gzip);
+                        output = new Output(getFile(gzip), gzip);
+                    }
+                    output.write(captured);
+                    if (queue.isEmpty()) {
+                        output.flush();
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "could not write captured payload", ex);
+                    output = close(output);
+                }
+                long droppedNow = dropped.getAndSet(0);
+                if (droppedNow > 0) {
+                    LOGGER.warning("capture queue full, dropped " + droppedNow + " payloads");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close(output);
+            // lets the next capture() start a new writer, unless stop() already replaced it
+            synchronized (this) {
+                if (writer == Thread.currentThread()) {
+                    writer = null;
+                }
+            }
+        }
+    }
+
+    private static Output close(Output output) {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "could not close payload capture file", ex);
+            }
+        }
+        return null;
+    }
+
+    private static File getDirectory() {
+        return new File(Jenkins.getInstance().getRootDir(), DIRECTORY_NAME);
+    }
+
+    private static File getFile(boolean gzip) {
+        return new File(getDirectory(), gzip ? FILE_NAME + ".gz" : FILE_NAME);
+    }
+
+    private static File getFile(boolean gzip, int index) {
+        return new File(getDirectory(), FILE_NAME + "." + index + (gzip ? ".gz" : ""));
+    }
+
+    private static void rotate(boolean gzip) {
+        File current = getFile(gzip);
+        if (!current.exists()) {
+            return;
+        }
+        File oldest = getFile(gzip, MAX_FILES - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            LOGGER.warning("could not delete " + oldest);
+        }
+        for (int i = MAX_FILES - 2; i >= 1; i--) {
+            File file = getFile(gzip, i);
+            if (file.exists() && !file.renameTo(getFile(gzip, i + 1))) {
+                LOGGER.warning("could not rotate " + file);
+            }
+        }
+        if (!current.renameTo(getFile(gzip, 1))) {
+            LOGGER.warning("could not rotate " + current);
+        }
+    }
+
+    private static final class Captured {
+        private final long receivedAt;
+        private final List<String> headers;
+        private final String requestBody;
+
+        private Captured(long receivedAt, List<String> headers, String requestBody) {
+            this.receivedAt = receivedAt;
+            this.headers = headers;
+            this.requestBody = requestBody;
+        }
+    }
+
+    /*
+     * Appends to the capture file and tracks its size: the size it was opened with plus the bytes
+     * written to the file since, i.e. compressed bytes for gzip.
+     */
+    private static final class Output {
+        private final OutputStream out;
+        private final CountingOutputStream fileOut;
+        private final boolean gzip;
+        private final long initialSize;
+
+        private Output(File file, boolean gzip) throws IOException {
+            File directory = file.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("could not create " + directory);
+            }
+            this.initialSize = file.length();
+            this.gzip = gzip;
+            this.fileOut = new CountingOutputStream(new FileOutputStream(file, true));
+            OutputStream bufferedOut = new BufferedOutputStream(fileOut);
+            this.out = gzip ? new GZIPOutputStream(bufferedOut, true) : bufferedOut;
+        }
+
+        /*
+         * Bytes still buffered or being compressed are not counted yet.
+         */
+        private long getSize() {
+            return initialSize + fileOut.getByteCount();
+        }
+
+        private void write(Captured captured) throws IOException {
+            StringBuilder record = new StringBuilder();
+            record.append("=== ").append(new DateTime(captured.receivedAt)).append('\n');
+            for (String header : captured.headers) {
+                record.append(header).append('\n');
+            }
+            record.append('\n').append(captured.requestBody).append("\n\n");
+            byte[] bytes = record.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+
+        private void close() throws IOException {
+            out.close();
+        }
+    }
+}
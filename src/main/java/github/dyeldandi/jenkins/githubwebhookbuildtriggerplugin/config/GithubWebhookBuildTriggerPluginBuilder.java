@@ -4,23 +4,310 @@
  */
 package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config;
 
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.admission.DeferralPolicy;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.routing.FlagJobSelector;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling.PriorityPolicy;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.treecache.TreeIdCache;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.webhooksecret.GitHubWebhookUtility;
 import hudson.Extension;
 import hudson.model.AbstractProject;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
+import hudson.util.ListBoxModel;
+import hudson.util.Secret;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.StaplerRequest;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
 /*
  * Enable Plugin to store global config under "Jenkins" => "configure" tab.
  */
 public class GithubWebhookBuildTriggerPluginBuilder extends Builder {
 
+    private static final int DEFAULT_HOLD_CAPACITY = 200;
+    private static final int DEFAULT_HOLD_FLUSH_RATE = 10;
+    private static final int DEFAULT_SEEN_COMMIT_WINDOW = 0;
+    private static final int DEFAULT_CAPTURE_MAX_FILE_SIZE = 10;
+    private static final int DEFAULT_ADMISSION_HIGH_WATERMARK = 1000;
+    private static final int DEFAULT_ADMISSION_LOW_WATERMARK = 500;
+    private static final String DEFAULT_COMMIT_STATUS_API_URL = "https://api.github.com";
+    private static final String DEFAULT_COMMIT_STATUS_CONTEXT = "jenkins";
+
+    /*
+     * The current global configuration, null before the descriptor was created.
+     */
+    public static Settings getSettings() {
+        DescriptorImpl descriptor = DescriptorImpl.getDescriptor();
+        return descriptor == null ? null : descriptor.getSettings();
+    }
+
+    /*
+     * Immutable copy of the global configuration with defaults applied and the rule texts parsed.
+     * A delivery takes one Settings and reads everything from it, so it never sees half of a
+     * configuration saved while it runs.
+     */
+    public static final class Settings {
+
+        private final String webhookSecret;
+        private final boolean legacyParameters;
+        private final TreeIdCache.Mode treeCacheMode;
+        private final String allowedPriorities;
+        private final PriorityPolicy priorityPolicy;
+        private final int holdCapacity;
+        private final int holdFlushRate;
+        private final boolean holdSpillToDisk;
+        private final boolean flagJobSelection;
+        private final String flagJobMappings;
+        private final FlagJobSelector flagJobSelector;
+        private final int seenCommitWindow;
+        private final boolean admissionControl;
+        private final int admissionHighWatermark;
+        private final int admissionLowWatermark;
+        private final String admissionDeferrable;
+        private final DeferralPolicy deferralPolicy;
+        private final boolean commitStatus;
+        private final String commitStatusApiUrl;
+        private final Secret commitStatusToken;
+        private final String commitStatusContext;
+        private final int captureSamplePercent;
+        private final String captureEventTypes;
+        private final Set<String> captureEventTypeSet;
+        private final int captureMaxFileSize;
+        private final boolean captureGzip;
+
+        private Settings(DescriptorImpl config) {
+            webhookSecret = config.webhookSecret;
+            legacyParameters = config.legacyParameters == null || config.legacyParameters;
+            treeCacheMode = config.treeCacheMode == null ? TreeIdCache.Mode.OFF : config.treeCacheMode;
+            allowedPriorities = config.allowedPriorities;
+            priorityPolicy = PriorityPolicy.parse(allowedPriorities);
+            holdCapacity = config.holdCapacity == null ? DEFAULT_HOLD_CAPACITY : config.holdCapacity;
+            holdFlushRate = config.holdFlushRate == null ? DEFAULT_HOLD_FLUSH_RATE : config.holdFlushRate;
+            holdSpillToDisk = config.holdSpillToDisk;
+            flagJobSelection = config.flagJobSelection;
+            flagJobMappings = config.flagJobMappings;
+            flagJobSelector = flagJobSelection ? FlagJobSelector.parse(flagJobMappings) : null;
+            seenCommitWindow = config.seenCommitWindow == null ? DEFAULT_SEEN_COMMIT_WINDOW : config.seenCommitWindow;
+            admissionControl = config.admissionControl;
+            admissionHighWatermark = config.admissionHighWatermark == null ? DEFAULT_ADMISSION_HIGH_WATERMARK : config.admissionHighWatermark;
+            admissionLowWatermark = config.admissionLowWatermark == null ? DEFAULT_ADMISSION_LOW_WATERMARK : config.admissionLowWatermark;
+            admissionDeferrable = config.admissionDeferrable;
+            DeferralPolicy deferral = DeferralPolicy.parse(admissionDeferrable);
+            deferralPolicy = admissionControl && !deferral.isEmpty() ? deferral : null;
+            commitStatus = config.commitStatus;
+            commitStatusApiUrl = config.commitStatusApiUrl;
+            commitStatusToken = config.commitStatusToken;
+            commitStatusContext = config.commitStatusContext;
+            captureSamplePercent = config.captureSamplePercent == null ? 0 : config.captureSamplePercent;
+            captureEventTypes = config.captureEventTypes;
+            captureEventTypeSet = parseEventTypes(captureEventTypes);
+            captureMaxFileSize = config.captureMaxFileSize == null ? DEFAULT_CAPTURE_MAX_FILE_SIZE : config.captureMaxFileSize;
+            captureGzip = config.captureGzip;
+        }
+
+        public String getWebhookSecret() {
+            return webhookSecret;
+        }
+
+        /*
+         * Configurations saved before the setting existed have no value and keep the parameters,
+         * pipelines reading params.GWBT_* only lose them once the switch is turned off.
+         */
+        public boolean isLegacyParameters() {
+            return legacyParameters;
+        }
+
+        public TreeIdCache.Mode getTreeCacheMode() {
+            return treeCacheMode;
+        }
+
+        public String getAllowedPriorities() {
+            return allowedPriorities;
+        }
+
+        public PriorityPolicy getPriorityPolicy() {
+            return priorityPolicy;
+        }
+
+        /*
+         * Max deliveries held while Jenkins is not accepting builds, 0 disables holding.
+         */
+        public int getHoldCapacity() {
+            return holdCapacity;
+        }
+
+        /*
+         * Held deliveries replayed every 10 seconds once builds are accepted again.
+         */
+        public int getHoldFlushRate() {
+            return holdFlushRate;
+        }
+
+        public boolean isHoldSpillToDisk() {
+            return holdSpillToDisk;
+        }
+
+        public boolean isFlagJobSelection() {
+            return flagJobSelection;
+        }
+
+        public String getFlagJobMappings() {
+            return flagJobMappings;
+        }
+
+        /*
+         * null unless flag job selection is enabled.
+         */
+        public FlagJobSelector getFlagJobSelector() {
+            return flagJobSelector;
+        }
+
+        /*
+         * Seconds during which a flagged commit does not trigger the same job again, 0 disables the check.
+         */
+        public int getSeenCommitWindow() {
+            return seenCommitWindow;
+        }
+
+        public boolean isAdmissionControl() {
+            return admissionControl;
+        }
+
+        /*
+         * Queue length at which non-critical triggers start being deferred.
+         */
+        public int getAdmissionHighWatermark() {
+            return admissionHighWatermark;
+        }
+
+        /*
+         * Queue length below which deferred triggers are released again.
+         */
+        public int getAdmissionLowWatermark() {
+            return admissionLowWatermark;
+        }
+
+        public String getAdmissionDeferrable() {
+            return admissionDeferrable;
+        }
+
+        /*
+         * null unless admission control is enabled and at least one deferral rule is configured.
+         */
+        public DeferralPolicy getDeferralPolicy() {
+            return deferralPolicy;
+        }
+
+        public boolean isCommitStatus() {
+            return commitStatus;
+        }
+
+        /*
+         * GitHub API base URL without trailing slash, e.g. https://github.example.com/api/v3 for GitHub Enterprise.
+         */
+        public String getCommitStatusApiUrl() {
+            String apiUrl = commitStatusApiUrl;
+            if (apiUrl == null || apiUrl.trim().isEmpty()) {
+                return DEFAULT_COMMIT_STATUS_API_URL;
+            }
+            apiUrl = apiUrl.trim();
+            return apiUrl.endsWith("/") ? apiUrl.substring(0, apiUrl.length() - 1) : apiUrl;
+        }
+
+        public Secret getCommitStatusToken() {
+            return commitStatusToken;
+        }
+
+        /*
+         * Prefix of the status context, the job full name is appended.
+         */
+        public String getCommitStatusContext() {
+            String context = commitStatusContext;
+            return context == null || context.trim().isEmpty() ? DEFAULT_COMMIT_STATUS_CONTEXT : context.trim();
+        }
+
+        public boolean isPayloadCapture() {
+            return captureSamplePercent > 0;
+        }
+
+        /*
+         * Percentage of deliveries written by PayloadCapture, 0 disables capturing.
+         */
+        public int getCaptureSamplePercent() {
+            return captureSamplePercent;
+        }
+
+        public String getCaptureEventTypes() {
+            return captureEventTypes;
+        }
+
+        /*
+         * Lower case event types to capture, empty captures every event type.
+         */
+        public Set<String> getCaptureEventTypeSet() {
+            return captureEventTypeSet;
+        }
+
+        /*
+         * Size in MB after which the capture file is rotated.
+         */
+        public int getCaptureMaxFileSize() {
+            return captureMaxFileSize;
+        }
+
+        public boolean isCaptureGzip() {
+            return captureGzip;
+        }
+
+        private static Set<String> parseEventTypes(String eventTypes) {
+            Set<String> parsed = new LinkedHashSet<>();
+            if (eventTypes != null) {
+                for (String eventType : eventTypes.split("[,\\s]+")) {
+                    if (!eventType.isEmpty()) {
+                        parsed.add(eventType.toLowerCase(Locale.ENGLISH));
+                    }
+                }
+            }
+            return Collections.unmodifiableSet(parsed);
+        }
+
+    }
+
     @Extension
     public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
 
+        /*
+         * The persisted configuration. Only changed while holding the descriptor lock, every change
+         * publishes a new Settings through the volatile settings field, which is all deliveries read.
+         */
         private String webhookSecret;
-        private static DescriptorImpl descriptor=null;
+        private Boolean legacyParameters;
+        private TreeIdCache.Mode treeCacheMode;
+        private String allowedPriorities;
+        private Integer holdCapacity;
+        private Integer holdFlushRate;
+        private boolean holdSpillToDisk = true;
+        private boolean flagJobSelection;
+        private String flagJobMappings;
+        private Integer seenCommitWindow;
+        private boolean admissionControl;
+        private Integer admissionHighWatermark;
+        private Integer admissionLowWatermark;
+        private String admissionDeferrable;
+        private boolean commitStatus;
+        private String commitStatusApiUrl;
+        private Secret commitStatusToken;
+        private String commitStatusContext;
+        private Integer captureSamplePercent;
+        private String captureEventTypes;
+        private Integer captureMaxFileSize;
+        private boolean captureGzip;
+        private transient volatile Settings settings;
+        private static volatile DescriptorImpl descriptor=null;
 
         public DescriptorImpl() {
             load();
@@ -28,13 +315,38 @@ public class GithubWebhookBuildTriggerPluginBuilder extends Builder {
         }
         public DescriptorImpl(String webhookSecret) {
             load();
-            this.webhookSecret=webhookSecret;
+            setWebhookSecret(webhookSecret);
             descriptor=this;
         }
         public static DescriptorImpl getDescriptor() {
             return descriptor;
         }
 
+        public Settings getSettings() {
+            Settings current = settings;
+            if (current == null) {
+                synchronized (this) {
+                    current = publish();
+                }
+            }
+            return current;
+        }
+
+        /*
+         * Called with the descriptor lock held after the persisted fields changed.
+         */
+        private Settings publish() {
+            Settings current = new Settings(this);
+            settings = current;
+            return current;
+        }
+
+        @Override
+        public synchronized void load() {
+            super.load();
+            publish();
+        }
+
         @Override
         public boolean isApplicable(Class<? extends AbstractProject> jobType) {
             return true;
@@ -48,17 +360,260 @@ public class GithubWebhookBuildTriggerPluginBuilder extends Builder {
         @Override
         public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
             json = json.getJSONObject("config");
-            webhookSecret = json.getString("webhookSecret");
+            Settings current;
+            synchronized (this) {
+                webhookSecret = json.getString("webhookSecret");
+                legacyParameters = json.optBoolean("legacyParameters");
+                try {
+                    treeCacheMode = TreeIdCache.Mode.valueOf(json.optString("treeCacheMode", TreeIdCache.Mode.OFF.name()));
+                } catch (IllegalArgumentException ex) {
+                    treeCacheMode = TreeIdCache.Mode.OFF;
+                }
+                allowedPriorities = json.optString("allowedPriorities");
+                holdCapacity = Math.max(0, json.optInt("holdCapacity", DEFAULT_HOLD_CAPACITY));
+                holdFlushRate = Math.max(1, json.optInt("holdFlushRate", DEFAULT_HOLD_FLUSH_RATE));
+                holdSpillToDisk = json.optBoolean("holdSpillToDisk");
+                flagJobSelection = json.optBoolean("flagJobSelection");
+                flagJobMappings = json.optString("flagJobMappings");
+                seenCommitWindow = Math.max(0, json.optInt("seenCommitWindow", DEFAULT_SEEN_COMMIT_WINDOW));
+                JSONObject admission = json.optJSONObject("admissionControl");
+                admissionControl = admission != null;
+                if (admission != null) {
+                    admissionHighWatermark = Math.max(1, admission.optInt("admissionHighWatermark", DEFAULT_ADMISSION_HIGH_WATERMARK));
+                    admissionLowWatermark = Math.min(admissionHighWatermark, Math.max(0, admission.optInt("admissionLowWatermark", DEFAULT_ADMISSION_LOW_WATERMARK)));
+                    admissionDeferrable = admission.optString("admissionDeferrable");
+                }
+                JSONObject status = json.optJSONObject("commitStatus");
+                commitStatus = status != null;
+                if (status != null) {
+                    commitStatusApiUrl = status.optString("commitStatusApiUrl");
+                    commitStatusToken = Secret.fromString(status.optString("commitStatusToken"));
+                    commitStatusContext = status.optString("commitStatusContext");
+                }
+                JSONObject capture = json.optJSONObject("payloadCapture");
+                if (capture != null) {
+                    captureSamplePercent = Math.min(100, Math.max(0, capture.optInt("captureSamplePercent", 0)));
+                    captureEventTypes = capture.optString("captureEventTypes");
+                    captureMaxFileSize = Math.max(1, capture.optInt("captureMaxFileSize", DEFAULT_CAPTURE_MAX_FILE_SIZE));
+                    captureGzip = capture.optBoolean("captureGzip");
+                } else {
+                    captureSamplePercent = 0;
+                }
+                current = publish();
+            }
+            GitHubWebhookUtility.prepare(current.getWebhookSecret());
             save();
             return true;
         }
 
         public String getWebhookSecret() {
-            return webhookSecret;
+            return getSettings().getWebhookSecret();
         }
 
-        public void setWebhookSecret(String webhookSecret) {
+        public synchronized void setWebhookSecret(String webhookSecret) {
             this.webhookSecret = webhookSecret;
+            publish();
+        }
+
+        public boolean isLegacyParameters() {
+            return getSettings().isLegacyParameters();
+        }
+
+        public synchronized void setLegacyParameters(boolean legacyParameters) {
+            this.legacyParameters = legacyParameters;
+            publish();
+        }
+
+        public TreeIdCache.Mode getTreeCacheMode() {
+            return getSettings().getTreeCacheMode();
+        }
+
+        public synchronized void setTreeCacheMode(TreeIdCache.Mode treeCacheMode) {
+            this.treeCacheMode = treeCacheMode;
+            publish();
+        }
+
+        public String getAllowedPriorities() {
+            return getSettings().getAllowedPriorities();
+        }
+
+        public synchronized void setAllowedPriorities(String allowedPriorities) {
+            this.allowedPriorities = allowedPriorities;
+            publish();
+        }
+
+        public int getHoldCapacity() {
+            return getSettings().getHoldCapacity();
+        }
+
+        public synchronized void setHoldCapacity(int holdCapacity) {
+            this.holdCapacity = holdCapacity;
+            publish();
+        }
+
+        public int getHoldFlushRate() {
+            return getSettings().getHoldFlushRate();
+        }
+
+        public synchronized void setHoldFlushRate(int holdFlushRate) {
+            this.holdFlushRate = holdFlushRate;
+            publish();
+        }
+
+        public boolean isHoldSpillToDisk() {
+            return getSettings().isHoldSpillToDisk();
+        }
+
+        public synchronized void setHoldSpillToDisk(boolean holdSpillToDisk) {
+            this.holdSpillToDisk = holdSpillToDisk;
+            publish();
+        }
+
+        public boolean isFlagJobSelection() {
+            return getSettings().isFlagJobSelection();
+        }
+
+        public synchronized void setFlagJobSelection(boolean flagJobSelection) {
+            this.flagJobSelection = flagJobSelection;
+            publish();
+        }
+
+        public String getFlagJobMappings() {
+            return getSettings().getFlagJobMappings();
+        }
+
+        public synchronized void setFlagJobMappings(String flagJobMappings) {
+            this.flagJobMappings = flagJobMappings;
+            publish();
+        }
+
+        public int getSeenCommitWindow() {
+            return getSettings().getSeenCommitWindow();
+        }
+
+        public synchronized void setSeenCommitWindow(int seenCommitWindow) {
+            this.seenCommitWindow = seenCommitWindow;
+            publish();
+        }
+
+        public boolean isAdmissionControl() {
+            return getSettings().isAdmissionControl();
+        }
+
+        public synchronized void setAdmissionControl(boolean admissionControl) {
+            this.admissionControl = admissionControl;
+            publish();
+        }
+
+        public int getAdmissionHighWatermark() {
+            return getSettings().getAdmissionHighWatermark();
+        }
+
+        public synchronized void setAdmissionHighWatermark(int admissionHighWatermark) {
+            this.admissionHighWatermark = admissionHighWatermark;
+            publish();
+        }
+
+        public int getAdmissionLowWatermark() {
+            return getSettings().getAdmissionLowWatermark();
+        }
+
+        public synchronized void setAdmissionLowWatermark(int admissionLowWatermark) {
+            this.admissionLowWatermark = admissionLowWatermark;
+            publish();
+        }
+
+        public String getAdmissionDeferrable() {
+            return getSettings().getAdmissionDeferrable();
+        }
+
+        public synchronized void setAdmissionDeferrable(String admissionDeferrable) {
+            this.admissionDeferrable = admissionDeferrable;
+            publish();
+        }
+
+        public boolean isCommitStatus() {
+            return getSettings().isCommitStatus();
+        }
+
+        public synchronized void setCommitStatus(boolean commitStatus) {
+            this.commitStatus = commitStatus;
+            publish();
+        }
+
+        public String getCommitStatusApiUrl() {
+            return getSettings().getCommitStatusApiUrl();
+        }
+
+        public synchronized void setCommitStatusApiUrl(String commitStatusApiUrl) {
+            this.commitStatusApiUrl = commitStatusApiUrl;
+            publish();
+        }
+
+        public Secret getCommitStatusToken() {
+            return getSettings().getCommitStatusToken();
+        }
+
+        public synchronized void setCommitStatusToken(Secret commitStatusToken) {
+            this.commitStatusToken = commitStatusToken;
+            publish();
+        }
+
+        public String getCommitStatusContext() {
+            return getSettings().getCommitStatusContext();
+        }
+
+        public synchronized void setCommitStatusContext(String commitStatusContext) {
+            this.commitStatusContext = commitStatusContext;
+            publish();
+        }
+
+        public int getCaptureSamplePercent() {
+            return getSettings().getCaptureSamplePercent();
+        }
+
+        public synchronized void setCaptureSamplePercent(int captureSamplePercent) {
+            this.captureSamplePercent = captureSamplePercent;
+            publish();
+        }
+
+        public String getCaptureEventTypes() {
+            return getSettings().getCaptureEventTypes();
+        }
+
+        public synchronized void setCaptureEventTypes(String captureEventTypes) {
+            this.captureEventTypes = captureEventTypes;
+            publish();
+        }
+
+        public int getCaptureMaxFileSize() {
+            return getSettings().getCaptureMaxFileSize();
+        }
+
+        public synchronized void setCaptureMaxFileSize(int captureMaxFileSize) {
+            this.captureMaxFileSize = captureMaxFileSize;
+            publish();
+        }
+
+        public boolean isCaptureGzip() {
+            return getSettings().isCaptureGzip();
+        }
+
+        public synchronized void setCaptureGzip(boolean captureGzip) {
+            this.captureGzip = captureGzip;
+            publish();
+        }
+
+        public boolean isPayloadCapture() {
+            return getSettings().isPayloadCapture();
+        }
+
+        public ListBoxModel doFillTreeCacheModeItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (TreeIdCache.Mode mode : TreeIdCache.Mode.values()) {
+                items.add(mode.getDisplayName(), mode.name());
+            }
+            return items;
         }
 
     }
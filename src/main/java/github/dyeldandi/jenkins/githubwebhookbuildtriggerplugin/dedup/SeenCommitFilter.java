@@ -0,0 +1,135 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.dedup;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Remembers which (repo, commit, flags, job) combinations were triggered recently, so that a
+ * flagged commit pushed again (to a new branch, after a force-push) does not trigger the same
+ * job twice within the window.
+ *
+ * The exact set holds the last MAX_RECENT keys with the time they were triggered and expires them
+ * after the window. Keys are also added to a Bloom filter of two generations, each covering one
+ * window. The Bloom filter is only consulted while the exact set overflows (more than MAX_RECENT
+ * triggers per window), so under normal traffic there are no false positives, and under sustained
+ * traffic memory stays constant at MAX_RECENT keys plus two fixed size bit sets. In that case a key
+ * may be remembered for up to two windows.
+ */
+public final class SeenCommitFilter {
+
+    private static final int MAX_RECENT = 10000;
+    private static final int BLOOM_BITS = 1 << 20;
+    private static final int BLOOM_HASHES = 4;
+
+    private static final SeenCommitFilter INSTANCE = new SeenCommitFilter();
+
+    private final LinkedHashMap<String, Long> recent = new LinkedHashMap<>();
+    private BitSet currentGeneration = new BitSet(BLOOM_BITS);
+    private BitSet previousGeneration = new BitSet(BLOOM_BITS);
+    private long currentGenerationStart;
+    private long lastOverflow;
+
+    private SeenCommitFilter() {
+    }
+
+    public static SeenCommitFilter get() {
+        return INSTANCE;
+    }
+
+    public static String key(String repo, String commit, String flags, String jobFullName) {
+        return repo + " " + commit + " " + flags + " " + jobFullName;
+    }
+
+    /*
+     * True if key was recorded within windowMillis.
+     */
+    public synchronized boolean contains(String key, long windowMillis) {
+        long now = System.currentTimeMillis();
+        expire(now, windowMillis);
+        return recent.containsKey(key) || (now - lastOverflow < 2 * windowMillis && mightContain(key));
+    }
+
+    /*
+     * Records key and returns true, or returns false if key was already recorded within windowMillis.
+     * Call once the build was actually scheduled, so that a trigger which was deferred or refused
+     * by the Queue does not suppress the next push of the same commit.
+     */
+    public synchronized boolean add(String key, long windowMillis) {
+        if (contains(key, windowMillis)) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        recent.put(key, now);
+        if (recent.size() > MAX_RECENT) {
+            Iterator<String> eldest = recent.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            lastOverflow = now;
+        }
+        setBits(currentGeneration, key);
+        return true;
+    }
+
+    public synchronized int size() {
+        return recent.size();
+    }
+
+    private void expire(long now, long windowMillis) {
+        Iterator<Map.Entry<String, Long>> it = recent.entrySet().iterator();
+        while (it.hasNext() && now - it.next().getValue() >= windowMillis) {
+            it.remove();
+        }
+        if (now - currentGenerationStart >= windowMillis) {
+            BitSet cleared = previousGeneration;
+            cleared.clear();
+            previousGeneration = currentGeneration;
+            currentGeneration = cleared;
+            currentGenerationStart = now;
+        }
+    }
+
+    private boolean mightContain(String key) {
+        return hasBits(currentGeneration, key) || hasBits(previousGeneration, key);
+    }
+
+    private static void setBits(BitSet bits, String key) {
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            bits.set(index(h1, h2, i));
+        }
+    }
+
+    private static boolean hasBits(BitSet bits, String key) {
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            if (!bits.get(index(h1, h2, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Double hashing: the i-th bit is h1 + i * h2.
+     */
+    private static int index(int h1, int h2, int i) {
+        return (h1 + i * h2) & (BLOOM_BITS - 1);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.holding;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.GithubWebhookPayload;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.GithubWebhookTriggerService;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.TriggerResult;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.PeriodicWork;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Holds verified deliveries while Jenkins is quieting down, instead of losing them. Deliveries
+ * are not held while Jenkins starts up: /receive is not served before initialization completed.
+ *
+ * Deliveries are coalesced by (repo, ref, after), bounded by the configured capacity and,
+ * if enabled, written to JENKINS_HOME/github-webhook-build-trigger-held-deliveries.xml so that
+ * they survive a restart. The file is written by FlushWork and on shutdown, not by the request
+ * thread, so only a delivery held in the last 10 seconds before a crash can be lost. Once the Queue accepts builds
+ * again FlushWork replays them at the configured rate, oldest first, as the anonymous user that
+ * sent them.
+ */
+public final class DeliveryHoldingBuffer {
+
+    private static final Logger LOGGER = Logger.getLogger(DeliveryHoldingBuffer.class.getName());
+
+    private static final String FILE_NAME = "github-webhook-build-trigger-held-deliveries.xml";
+
+    private static final DeliveryHoldingBuffer INSTANCE = new DeliveryHoldingBuffer();
+
+    private final LinkedHashMap<String, HeldDelivery> deliveries = new LinkedHashMap<>();
+    private boolean loaded;
+    private boolean dirty;
+    private final Object saveLock = new Object();
+
+    private DeliveryHoldingBuffer() {
+    }
+
+    public static DeliveryHoldingBuffer get() {
+        return INSTANCE;
+    }
+
+    public static boolean isAcceptingBuilds() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins != null && !jenkins.isQuietingDown();
+    }
+
+    public boolean shouldHold() {
+        return getConfig().getHoldCapacity() > 0 && !isAcceptingBuilds();
+    }
+
+    /*
+     * Returns false if the buffer is full. A duplicate of a held delivery is accepted and dropped.
+     */
+    public synchronized boolean hold(GithubWebhookPayload payload, String requestBody, long receivedAt) {
+        load();
+        GithubWebhookPayload.GithubWebhookPayloadRepository repository = payload.getRepository();
+        String key = (repository == null ? null : repository.getFull_name()) + " " + payload.getRef() + " " + payload.getAfter();
+        if (deliveries.containsKey(key)) {
+            LOGGER.fine("hold: coalesced duplicate delivery " + key);
+            return true;
+        }
+        if (deliveries.size() >= getConfig().getHoldCapacity()) {
+            LOGGER.warning("hold: buffer full, rejecting delivery " + key);
+            return false;
+        }
+        deliveries.put(key, new HeldDelivery(key, payload.getType(), requestBody, receivedAt));
+        LOGGER.info("hold: holding delivery " + key + " (" + deliveries.size() + " held)");
+        dirty = true;
+        return true;
+    }
+
+    public synchronized int size() {
+        load();
+        return deliveries.size();
+    }
+
+    private synchronized List<HeldDelivery> take(int max) {
+        load();
+        List<HeldDelivery> taken = new ArrayList<>();
+        Iterator<HeldDelivery> it = deliveries.values().iterator();
+        while (it.hasNext() && taken.size() < max) {
+            taken.add(it.next());
+            it.remove();
+        }
+        if (!taken.isEmpty()) {
+            dirty = true;
+        }
+        return taken;
+    }
+
+    void flush() {
+        if (!isAcceptingBuilds() || size() == 0) {
+            return;
+        }
+        GithubWebhookTriggerService triggerService = GithubWebhookTriggerService.get();
+        for (HeldDelivery delivery : take(getConfig().getHoldFlushRate())) {
+            // FlushWork runs as SYSTEM, the delivery itself was received anonymously
+            try (ACLContext ignored = ACL.as(Jenkins.ANONYMOUS)) {
+                // the signature was verified when the delivery was received
+                GithubWebhookPayload payload = triggerService.decode(delivery.requestBody);
+                if (payload == null) {
+                    continue;
+                }
+                TriggerResult result = triggerService.trigger(new GithubWebhookTriggerService.TriggerRequest(delivery.eventType, payload, delivery.receivedAt));
+                LOGGER.info("flush: replayed held delivery " + delivery.key + "\n" + result.getInfo());
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "flush: could not replay held delivery " + delivery.key, ex);
+            }
+        }
+    }
+
+    private static GithubWebhookBuildTriggerPluginBuilder.Settings getConfig() {
+        return GithubWebhookBuildTriggerPluginBuilder.getSettings();
+    }
+
+    private static XmlFile getFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.getInstance().getRootDir(), FILE_NAME));
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        XmlFile file = getFile();
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            Persisted persisted = (Persisted) file.read();
+            if (persisted.deliveries != null) {
+                for (HeldDelivery delivery : persisted.deliveries) {
+                    deliveries.put(delivery.key, delivery);
+                }
+            }
+            LOGGER.info("load: " + deliveries.size() + " held deliveries loaded from " + file);
+        } catch (IOException | ClassCastException ex) {
+            LOGGER.log(Level.WARNING, "could not load " + file, ex);
+        }
+    }
+
+    /*
+     * Writes the held deliveries if they changed since the last save. The copy is taken under
+     * the buffer lock, the file is written outside of it.
+     */
+    void save() {
+        synchronized (saveLock) {
+            Persisted persisted = new Persisted();
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+                persisted.deliveries = new ArrayList<>(deliveries.values());
+            }
+            write(persisted);
+        }
+    }
+
+    @Terminator
+    public static void saveOnShutdown() {
+        get().save();
+    }
+
+    private static void write(Persisted persisted) {
+        XmlFile file = getFile();
+        try {
+            if (!getConfig().isHoldSpillToDisk()) {
+                if (file.exists()) {
+                    file.delete();
+                }
+                return;
+            }
+            file.write(persisted);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "could not save held deliveries", ex);
+        }
+    }
+
+    private static final class HeldDelivery {
+        private final String key;
+        private final String eventType;
+        private final String requestBody;
+        private final long receivedAt;
+
+        private HeldDelivery(String key, String eventType, String requestBody, long receivedAt) {
+            this.key = key;
+            this.eventType = eventType;
+            this.requestBody = requestBody;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    private static final class Persisted {
+        private List<HeldDelivery> deliveries;
+    }
+
+    @Extension
+    public static class FlushWork extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return 10 * 1000;
+        }
+
+        @Override
+        protected void doRun() {
+            DeliveryHoldingBuffer buffer = DeliveryHoldingBuffer.get();
+            try {
+                buffer.flush();
+            } finally {
+                buffer.save();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.pathfilter;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import java.util.Collection;
+
+/*
+ * Only trigger the job for push events that change at least one path matching the configured globs.
+ */
+public class GithubWebhookPathFilterProperty extends JobProperty<Job<?, ?>> {
+
+    private final String paths;
+    private transient volatile PathTrieMatcher matcher;
+
+    @DataBoundConstructor
+    public GithubWebhookPathFilterProperty(String paths) {
+        this.paths = paths;
+    }
+
+    public String getPaths() {
+        return paths;
+    }
+
+    public PathTrieMatcher getMatcher() {
+        PathTrieMatcher compiled = matcher;
+        if (compiled == null) {
+            compiled = PathTrieMatcher.compile(paths);
+            matcher = compiled;
+        }
+        return compiled;
+    }
+
+    /*
+     * Unknown (null) or empty change sets always trigger, e.g. branch creation or an empty commit carrying a flag.
+     */
+    public boolean isTriggeredBy(Collection<String> changedPaths) {
+        if (changedPaths == null || changedPaths.isEmpty()) {
+            return true;
+        }
+        PathTrieMatcher compiled = getMatcher();
+        return compiled.isEmpty() || compiled.matchesAny(changedPaths);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends JobPropertyDescriptor {
+
+        @Override
+        public boolean isApplicable(Class<? extends Job> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Github Webhook Build Trigger changed path filter";
+        }
+
+        @Override
+        public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            JSONObject pathFilter = formData.optJSONObject("githubWebhookPathFilter");
+            if (pathFilter == null) {
+                return null;
+            }
+            return new GithubWebhookPathFilterProperty(pathFilter.optString("paths"));
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.pathfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*
+ * Matches repository paths against a set of globs compiled into a trie of path segments.
+ *
+ * Supported glob syntax (one glob per line):
+ *   docs/**            everything below docs/
+ *   src/main/*.java    '*' and '?' match within a single path segment
+ *   services/api/      a trailing '/' is the same as services/api/**
+ * A '**' segment matches zero or more segments anywhere in the glob, a lone '**' matches every path.
+ * Blank lines and lines starting with '#' are ignored.
+ *
+ * Globs sharing a prefix share the trie nodes, so a changed path is walked once per
+ * segment instead of once per glob. Instances are immutable after compile() and can be
+ * shared between concurrent deliveries.
+ */
+public final class PathTrieMatcher {
+
+    private static final String ANY_DEPTH = "**";
+
+    private final Node root = new Node();
+    private final boolean empty;
+    private final boolean matchesEverything;
+
+    private PathTrieMatcher(Collection<String> globs) {
+        boolean noGlobs = true;
+        boolean everything = false;
+        for (String glob : globs) {
+            String trimmed = glob.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            noGlobs = false;
+            everything |= add(trimmed);
+        }
+        this.empty = noGlobs;
+        this.matchesEverything = everything;
+    }
+
+    public static PathTrieMatcher compile(Collection<String> globs) {
+        return new PathTrieMatcher(globs);
+    }
+
+    /*
+     * Compile newline separated globs as entered in the job configuration.
+     */
+    public static PathTrieMatcher compile(String globs) {
+        if (globs == null) {
+            return new PathTrieMatcher(new ArrayList<String>());
+        }
+        return new PathTrieMatcher(Arrays.asList(globs.split("\n")));
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    public boolean matches(String path) {
+        if (matchesEverything) {
+            return true;
+        }
+        return matches(root, split(path), 0);
+    }
+
+    /*
+     * True as soon as one of the paths matches.
+     */
+    public boolean matchesAny(Collection<String> paths) {
+        if (matchesEverything) {
+            return !paths.isEmpty();
+        }
+        for (String path : paths) {
+            if (matches(root, split(path), 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Returns true if the glob matches every path.
+     */
+    private boolean add(String glob) {
+        if (glob.endsWith("/")) {
+            glob = glob + ANY_DEPTH;
+        }
+        String[] segments = split(glob);
+        Node node = root;
+        String previous = null;
+        for (String segment : segments) {
+            if (ANY_DEPTH.equals(segment)) {
+                if (ANY_DEPTH.equals(previous)) {
+                    continue;
+                }
+                if (node.anyDepth == null) {
+                    node.anyDepth = new Node();
+                }
+                node = node.anyDepth;
+            } else if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0) {
+                WildcardChild child = node.wildcards.get(segment);
+                if (child == null) {
+                    child = new WildcardChild(toPattern(segment), new Node());
+                    node.wildcards.put(segment, child);
+                }
+                node = child.node;
+            } else {
+                Node child = node.literals.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.literals.put(segment, child);
+                }
+                node = child;
+            }
+            previous = segment;
+        }
+        node.terminal = true;
+        return segments.length == 1 && ANY_DEPTH.equals(segments[0]);
+    }
+
+    private static boolean matches(Node node, String[] segments, int index) {
+        if (node.anyDepth != null) {
+            for (int i = index; i <= segments.length; i++) {
+                if (matches(node.anyDepth, segments, i)) {
+                    return true;
+                }
+            }
+        }
+        if (index == segments.length) {
+            return node.terminal;
+        }
+        String segment = segments[index];
+        Node literal = node.literals.get(segment);
+        if (literal != null && matches(literal, segments, index + 1)) {
+            return true;
+        }
+        for (WildcardChild child : node.wildcards.values()) {
+            if (child.pattern.matcher(segment).matches() && matches(child.node, segments, index + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Split on '/' without regex, ignoring leading, trailing and duplicate separators.
+     */
+    private static String[] split(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        int length = path.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || path.charAt(i) == '/') {
+                if (i > start) {
+                    segments.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    private static Pattern toPattern(String segment) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : segment.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? "[^/]*" : "[^/]");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static final class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private final Map<String, WildcardChild> wildcards = new LinkedHashMap<>();
+        private Node anyDepth;
+        private boolean terminal;
+    }
+
+    private static final class WildcardChild {
+        private final Pattern pattern;
+        private final Node node;
+
+        private WildcardChild(Pattern pattern, Node node) {
+            this.pattern = pattern;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.routing;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling.SchedulingFlags;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Maps commit flags to the jobs they target, so [jenkins:docs] only triggers {owner}---{repo}-docs
+ * instead of every {owner}---{repo}* job. One mapping rule per line:
+ *   docs=-docs
+ *   deploy=-deploy,-smoketest
+ * A flag without a rule selects the job named {owner}---{repo}-{flag}. The reserved
+ * scheduling flags (priority, quiet) never select jobs.
+ */
+public final class FlagJobSelector {
+
+    private final Map<String, List<String>> suffixes;
+
+    private FlagJobSelector(Map<String, List<String>> suffixes) {
+        this.suffixes = Collections.unmodifiableMap(suffixes);
+    }
+
+    public static FlagJobSelector parse(String text) {
+        Map<String, List<String>> suffixes = new HashMap<>();
+        if (text != null) {
+            for (String line : text.split("\n")) {
+                String trimmed = line.trim();
+                int separator = trimmed.indexOf('=');
+                if (trimmed.isEmpty() || trimmed.startsWith("#") || separator <= 0) {
+                    continue;
+                }
+                List<String> flagSuffixes = new ArrayList<>();
+                for (String suffix : trimmed.substring(separator + 1).split(",")) {
+                    if (!suffix.trim().isEmpty()) {
+                        flagSuffixes.add(suffix.trim());
+                    }
+                }
+                suffixes.put(trimmed.substring(0, separator).trim(), Collections.unmodifiableList(flagSuffixes));
+            }
+        }
+        return new FlagJobSelector(suffixes);
+    }
+
+    /*
+     * Names of the jobs the flags (normalized GWBT_FLAGS form) point at, for jobs starting with jobNamePrefix.
+     */
+    public Set<String> getTargetJobNames(String jobNamePrefix, String flags) {
+        Set<String> names = new HashSet<>();
+        if (flags == null || flags.isEmpty()) {
+            return names;
+        }
+        for (String flag : flags.split(" ")) {
+            int separator = flag.indexOf('=');
+            String name = separator < 0 ? flag : flag.substring(0, separator);
+            if (name.isEmpty() || SchedulingFlags.PRIORITY_FLAG.equals(name) || SchedulingFlags.QUIET_FLAG.equals(name)) {
+                continue;
+            }
+            List<String> flagSuffixes = suffixes.get(name);
+            if (flagSuffixes == null) {
+                names.add(jobNamePrefix + "-" + name);
+            } else {
+                for (String suffix : flagSuffixes) {
+                    names.add(jobNamePrefix + suffix);
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.routing;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/*
+ * Jobs sorted by name, so that the jobs of a delivery are found by their name prefix
+ * instead of walking every item of the instance per delivery.
+ *
+ * The index is rebuilt lazily after items are created, renamed, moved or deleted, and built
+ * eagerly once all items are (re)loaded. It is built as SYSTEM; lookups only return jobs the
+ * current user can read, like Jenkins.getAllItems() did.
+ */
+public final class JobNameIndex {
+
+    private static final JobNameIndex INSTANCE = new JobNameIndex();
+
+    private volatile Snapshot snapshot;
+    private int generation;
+
+    private JobNameIndex() {
+    }
+
+    public static JobNameIndex get() {
+        return INSTANCE;
+    }
+
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            int builtGeneration;
+            synchronized (this) {
+                builtGeneration = generation;
+            }
+            current = build();
+            synchronized (this) {
+                // an item changed while building, publish nothing and rebuild on the next lookup
+                if (generation == builtGeneration) {
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        snapshot = null;
+    }
+
+    private static Snapshot build() {
+        TreeMap<String, List<Job>> byName = new TreeMap<>();
+        Jenkins jenkins = Jenkins.getInstance();
+        try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+            for (Job job : jenkins.getAllItems(Job.class)) {
+                List<Job> jobs = byName.get(job.getName());
+                if (jobs == null) {
+                    jobs = new ArrayList<>(1);
+                    byName.put(job.getName(), jobs);
+                }
+                jobs.add(job);
+            }
+        }
+        return new Snapshot(byName);
+    }
+
+    /*
+     * Immutable view of the index at one point in time.
+     */
+    public static final class Snapshot {
+        private final NavigableMap<String, List<Job>> byName;
+
+        private Snapshot(NavigableMap<String, List<Job>> byName) {
+            this.byName = byName;
+        }
+
+        /*
+         * Readable jobs whose name starts with prefix, in name order.
+         */
+        public Collection<Job> getJobsStartingWith(String prefix) {
+            List<Job> jobs = new ArrayList<>();
+            for (Map.Entry<String, List<Job>> entry : byName.tailMap(prefix, true).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                for (Job job : entry.getValue()) {
+                    if (job.hasPermission(Item.READ)) {
+                        jobs.add(job);
+                    }
+                }
+            }
+            return Collections.unmodifiableList(jobs);
+        }
+
+        /*
+         * False if there are no jobs or the current user can read none of them.
+         */
+        public boolean hasReadableJobs() {
+            for (List<Job> jobs : byName.values()) {
+                for (Job job : jobs) {
+                    if (job.hasPermission(Item.READ)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        public int size() {
+            return byName.size();
+        }
+    }
+
+    @Extension
+    public static class IndexItemListener extends ItemListener {
+
+        @Override
+        public void onCreated(Item item) {
+            JobNameIndex.get().invalidate();
+        }
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            JobNameIndex.get().invalidate();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            JobNameIndex.get().invalidate();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            JobNameIndex.get().invalidate();
+        }
+
+        /*
+         * Fires once the init reactor is done and after 'Reload Configuration from Disk',
+         * which replaces every Job object: rebuild right away so the next delivery finds a warm index.
+         */
+        @Override
+        public void onLoaded() {
+            JobNameIndex index = JobNameIndex.get();
+            index.invalidate();
+            index.getSnapshot();
+        }
+    }
+}
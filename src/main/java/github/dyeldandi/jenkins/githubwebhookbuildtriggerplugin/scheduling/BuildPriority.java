@@ -0,0 +1,29 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling;
+
+/*
+ * Queue priority requested via [jenkins:priority=high|normal|low], in queue order.
+ */
+public enum BuildPriority {
+    HIGH,
+    NORMAL,
+    LOW;
+
+    /*
+     * Returns null for unknown names.
+     */
+    public static BuildPriority parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (BuildPriority priority : values()) {
+            if (priority.name().equalsIgnoreCase(name.trim())) {
+                return priority;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.GithubWebhookContextAction;
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.queue.QueueSorter;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Orders buildable items by the [jenkins:priority=...] flag of the webhook that triggered them.
+ * Items not triggered by this plugin count as NORMAL; the sort is stable so items of the same
+ * priority keep the order the Queue handed them in.
+ * Note: Jenkins installs only one QueueSorter, another sorter plugin takes precedence if present.
+ */
+@Extension
+public class GithubWebhookQueueSorter extends QueueSorter {
+
+    private static final Comparator<Queue.BuildableItem> BY_PRIORITY = new Comparator<Queue.BuildableItem>() {
+        @Override
+        public int compare(Queue.BuildableItem a, Queue.BuildableItem b) {
+            return getPriority(a).compareTo(getPriority(b));
+        }
+    };
+
+    @Override
+    public void sortBuildableItems(List<Queue.BuildableItem> buildables) {
+        Collections.sort(buildables, BY_PRIORITY);
+    }
+
+    private static BuildPriority getPriority(Queue.Item item) {
+        GithubWebhookContextAction context = item.getAction(GithubWebhookContextAction.class);
+        if (context == null || context.getPriority() == null) {
+            return BuildPriority.NORMAL;
+        }
+        return context.getPriority();
+    }
+}
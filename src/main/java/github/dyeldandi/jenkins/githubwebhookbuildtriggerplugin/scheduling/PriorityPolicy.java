@@ -0,0 +1,88 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/*
+ * Which priorities a repository may request, as configured by the admin. One rule per line:
+ *   codeclou/hotfix-service=high,normal,low
+ *   codeclou/*=normal,low
+ * The first rule whose repository pattern ('*' wildcard) matches the full name applies.
+ * Repositories without a matching rule, or any repository if no rules are configured, may request all priorities.
+ * NORMAL is always allowed, a disallowed request falls back to it.
+ */
+public final class PriorityPolicy {
+
+    private final List<Rule> rules;
+
+    private PriorityPolicy(List<Rule> rules) {
+        this.rules = Collections.unmodifiableList(rules);
+    }
+
+    public static PriorityPolicy parse(String text) {
+        List<Rule> rules = new ArrayList<>();
+        if (text == null) {
+            return new PriorityPolicy(rules);
+        }
+        for (String line : text.split("\n")) {
+            String trimmed = line.trim();
+            int separator = trimmed.indexOf('=');
+            if (trimmed.isEmpty() || trimmed.startsWith("#") || separator <= 0) {
+                continue;
+            }
+            Set<BuildPriority> allowed = EnumSet.of(BuildPriority.NORMAL);
+            for (String name : trimmed.substring(separator + 1).split(",")) {
+                BuildPriority priority = BuildPriority.parse(name);
+                if (priority != null) {
+                    allowed.add(priority);
+                }
+            }
+            rules.add(new Rule(toRepoPattern(trimmed.substring(0, separator).trim()), Collections.unmodifiableSet(allowed)));
+        }
+        return new PriorityPolicy(rules);
+    }
+
+    public BuildPriority apply(String repoFullName, BuildPriority requested) {
+        if (requested == BuildPriority.NORMAL || repoFullName == null) {
+            return requested;
+        }
+        for (Rule rule : rules) {
+            if (rule.repo.matcher(repoFullName).matches()) {
+                return rule.allowed.contains(requested) ? requested : BuildPriority.NORMAL;
+            }
+        }
+        return requested;
+    }
+
+    /*
+     * Compiles a repository glob, '*' matches any characters including '/'. Also used by DeferralPolicy.
+     */
+    public static Pattern toRepoPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (String part : glob.split("\\*", -1)) {
+            if (regex.length() > 0) {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(part));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static final class Rule {
+        private final Pattern repo;
+        private final Set<BuildPriority> allowed;
+
+        private Rule(Pattern repo, Set<BuildPriority> allowed) {
+            this.repo = repo;
+            this.allowed = allowed;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.scheduling;
+
+/*
+ * Reserved flags controlling how triggered builds are scheduled:
+ *   [jenkins:priority=high|normal|low]  queue priority, see GithubWebhookQueueSorter
+ *   [jenkins:quiet=30]                  quiet period in seconds
+ * Works on the normalized GWBT_FLAGS form ("name=value name2 ...").
+ */
+public final class SchedulingFlags {
+
+    public static final String PRIORITY_FLAG = "priority";
+    public static final String QUIET_FLAG = "quiet";
+    public static final int MAX_QUIET_PERIOD = 3600;
+
+    private SchedulingFlags() {
+    }
+
+    public static BuildPriority getPriority(String flags) {
+        BuildPriority priority = BuildPriority.parse(getValue(flags, PRIORITY_FLAG));
+        return priority == null ? BuildPriority.NORMAL : priority;
+    }
+
+    /*
+     * Quiet period in seconds, 0 when the flag is absent or invalid.
+     */
+    public static int getQuietPeriod(String flags) {
+        String value = getValue(flags, QUIET_FLAG);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            int quietPeriod = Integer.parseInt(value);
+            return Math.max(0, Math.min(quietPeriod, MAX_QUIET_PERIOD));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static String getValue(String flags, String name) {
+        if (flags == null || flags.isEmpty()) {
+            return null;
+        }
+        String prefix = name + "=";
+        for (String flag : flags.split(" ")) {
+            if (flag.startsWith(prefix)) {
+                return flag.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.status;
+
+import com.google.gson.JsonObject;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import hudson.init.Terminator;
+import hudson.util.Secret;
+import org.apache.http.Header;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Sends commit statuses (POST /repos/{owner}/{repo}/statuses/{sha}) for triggered builds.
+ *
+ * CommitStatusRunListener only calls report(), which puts the update into a bounded map keyed by
+ * (repo, sha, context) and returns: a newer state for the same key replaces the one still waiting,
+ * so a build finishing before its pending status went out only sends the final state. A single
+ * daemon thread drains the map through a pooled http client. When GitHub reports the rate limit
+ * as exhausted (X-RateLimit-Remaining: 0, Retry-After) the sender waits until the reset time,
+ * server errors and I/O errors are retried with exponential backoff.
+ */
+public final class CommitStatusReporter {
+
+    private static final Logger LOGGER = Logger.getLogger(CommitStatusReporter.class.getName());
+
+    private static final int MAX_PENDING = 1000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 15 * 60 * 1000;
+    private static final int TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final CommitStatusReporter INSTANCE = new CommitStatusReporter();
+
+    private final LinkedHashMap<String, StatusUpdate> pending = new LinkedHashMap<>();
+    private Thread sender;
+    private CloseableHttpClient httpClient;
+    private long dropped;
+
+    private CommitStatusReporter() {
+    }
+
+    public static CommitStatusReporter get() {
+        return INSTANCE;
+    }
+
+    public enum State {
+        PENDING("pending"),
+        SUCCESS("success"),
+        FAILURE("failure"),
+        ERROR("error");
+
+        private final String apiValue;
+
+        State(String apiValue) {
+            this.apiValue = apiValue;
+        }
+
+        public String getApiValue() {
+            return apiValue;
+        }
+    }
+
+    /*
+     * Never blocks on GitHub. Returns false if the update was dropped because the queue is full.
+     */
+    public synchronized boolean report(String repo, String sha, String context, State state, String targetUrl, String description) {
+        String key = repo + " " + sha + " " + context;
+        StatusUpdate update = new StatusUpdate(repo, sha, context, state, targetUrl, description);
+        if (!pending.containsKey(key) && pending.size() >= MAX_PENDING) {
+            dropped++;
+            return false;
+        }
+        pending.put(key, update);
+        startSender();
+        notifyAll();
+        return true;
+    }
+
+    private void startSender() {
+        if (sender != null) {
+            return;
+        }
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(4);
+        connectionManager.setDefaultMaxPerRoute(4);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(TIMEOUT_MILLIS)
+                .setConnectionRequestTimeout(TIMEOUT_MILLIS)
+                .setSocketTimeout(TIMEOUT_MILLIS)
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+        sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                send();
+            }
+        }, "GWBT commit status sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    @Terminator
+    public static void stop() {
+        Thread thread;
+        CloseableHttpClient client;
+        synchronized (INSTANCE) {
+            thread = INSTANCE.sender;
+            client = INSTANCE.httpClient;
+            INSTANCE.sender = null;
+            INSTANCE.httpClient = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+        close(client);
+    }
+
+    private static void close(CloseableHttpClient client) {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "could not close http client", ex);
+            }
+        }
+    }
+
+    private synchronized List<StatusUpdate> takeAll() throws InterruptedException {
+        while (pending.isEmpty()) {
+            wait();
+        }
+        if (dropped > 0) {
+            LOGGER.warning("commit status queue full, dropped " + dropped + " updates");
+            dropped = 0;
+        }
+        List<StatusUpdate> updates = new ArrayList<>(pending.values());
+        pending.clear();
+        return updates;
+    }
+
+    /*
+     * Put a failed update back unless a newer state for the same commit and context arrived meanwhile.
+     */
+    private synchronized void retry(StatusUpdate update) {
+        String key = update.repo + " " + update.sha + " " + update.context;
+        if (!pending.containsKey(key) && pending.size() < MAX_PENDING) {
+            pending.put(key, update);
+        }
+    }
+
+    private synchronized CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    private void send() {
+        long backoffMillis = MIN_BACKOFF_MILLIS;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<StatusUpdate> updates = takeAll();
+                Iterator<StatusUpdate> it = updates.iterator();
+                while (it.hasNext()) {
+                    StatusUpdate update = it.next();
+                    long waitMillis;
+                    try {
+                        waitMillis = post(update);
+                    } catch (RuntimeException ex) {
+                        // e.g. an invalid API URL, retrying would not help
+                        LOGGER.log(Level.WARNING, "could not send commit status for " + update.repo + "@" + update.sha, ex);
+                        waitMillis = 0;
+                    }
+                    if (waitMillis == 0) {
+                        backoffMillis = MIN_BACKOFF_MILLIS;
+                        continue;
+                    }
+                    // keep the rest for after the pause, newer states may replace them meanwhile
+                    update.attempts++;
+                    if (update.attempts < MAX_ATTEMPTS) {
+                        retry(update);
+                    } else {
+                        LOGGER.warning("giving up on commit status " + update.state.getApiValue() + " for " + update.repo + "@" + update.sha);
+                    }
+                    while (it.hasNext()) {
+                        retry(it.next());
+                    }
+                    if (waitMillis < 0) {
+                        waitMillis = backoffMillis;
+                        backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+                    }
+                    Thread.sleep(Math.min(MAX_BACKOFF_MILLIS, waitMillis));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // lets the next report() start a new sender, unless stop() already cleared it
+            CloseableHttpClient client = null;
+            synchronized (this) {
+                if (sender == Thread.currentThread()) {
+                    sender = null;
+                    client = httpClient;
+                    httpClient = null;
+                }
+            }
+            close(client);
+        }
+    }
+
+    /*
+     * Returns 0 when done (sent, or rejected for good), the milliseconds until the rate limit resets,
+     * or -1 to retry with backoff.
+     */
+    private long post(StatusUpdate update) {
+        GithubWebhookBuildTriggerPluginBuilder.Settings config = GithubWebhookBuildTriggerPluginBuilder.getSettings();
+        CloseableHttpClient client = getHttpClient();
+        if (config == null || client == null) {
+            return 0;
+        }
+        String apiUrl = config.getCommitStatusApiUrl();
+        HttpPost post = new HttpPost(apiUrl + "/repos/" + update.repo + "/statuses/" + update.sha);
+        Secret token = config.getCommitStatusToken();
+        if (token != null && !Secret.toString(token).isEmpty()) {
+            post.setHeader("Authorization", "token " + Secret.toString(token));
+        }
+        post.setHeader("Accept", "application/vnd.github.v3+json");
+        JsonObject body = new JsonObject();
+        body.addProperty("state", update.state.getApiValue());
+        body.addProperty("context", update.context);
+        if (update.targetUrl != null) {
+            body.addProperty("target_url", update.targetUrl);
+        }
+        if (update.description != null) {
+            body.addProperty("description", update.description);
+        }
+        post.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+        try (CloseableHttpResponse response = client.execute(post)) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            if (status >= 200 && status < 300) {
+                LOGGER.fine("sent commit status " + update.state.getApiValue() + " " + update.context + " for " + update.repo + "@" + update.sha);
+                return 0;
+            }
+            long rateLimitWait = getRateLimitWait(response);
+            if (rateLimitWait > 0) {
+                LOGGER.info("GitHub rate limit reached, pausing commit statuses for " + rateLimitWait / 1000 + "s");
+                return rateLimitWait;
+            }
+            if (status >= 500) {
+                return -1;
+            }
+            LOGGER.warning("GitHub rejected commit status for " + update.repo + "@" + update.sha + ": HTTP " + status);
+            return 0;
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "could not send commit status for " + update.repo + "@" + update.sha, ex);
+            return -1;
+        }
+    }
+
+    private static long getRateLimitWait(CloseableHttpResponse response) {
+        Header retryAfter = response.getFirstHeader("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return Math.max(1, Long.parseLong(retryAfter.getValue().trim())) * 1000;
+            } catch (NumberFormatException ex) {
+                return MIN_BACKOFF_MILLIS;
+            }
+        }
+        Header remaining = response.getFirstHeader("X-RateLimit-Remaining");
+        Header reset = response.getFirstHeader("X-RateLimit-Reset");
+        if (remaining != null && "0".equals(remaining.getValue().trim()) && reset != null) {
+            try {
+                long resetMillis = Long.parseLong(reset.getValue().trim()) * 1000;
+                return Math.max(MIN_BACKOFF_MILLIS, resetMillis - System.currentTimeMillis());
+            } catch (NumberFormatException ex) {
+                return MIN_BACKOFF_MILLIS;
+            }
+        }
+        return 0;
+    }
+
+    private static final class StatusUpdate {
+        private final String repo;
+        private final String sha;
+        private final String context;
+        private final State state;
+        private final String targetUrl;
+        private final String description;
+        private int attempts;
+
+        private StatusUpdate(String repo, String sha, String context, State state, String targetUrl, String description) {
+            this.repo = repo;
+            this.sha = sha;
+            this.context = context;
+            this.state = state;
+            this.targetUrl = targetUrl;
+            this.description = description;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.status;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.GithubWebhookContextAction;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import hudson.Extension;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+import java.util.Locale;
+
+/*
+ * Reports pending when a triggered build starts and its result when it completes,
+ * to GWBT_COMMIT (the flagged commit) or else GWBT_COMMIT_AFTER. Tag builds get no status:
+ * create events carry neither, only the tag name.
+ */
+@Extension
+public class CommitStatusRunListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onStarted(Run<?, ?> run, TaskListener listener) {
+        report(run, CommitStatusReporter.State.PENDING, "Build " + run.getDisplayName() + " started");
+    }
+
+    @Override
+    public void onCompleted(Run<?, ?> run, TaskListener listener) {
+        Result result = run.getResult();
+        if (result == Result.SUCCESS) {
+            report(run, CommitStatusReporter.State.SUCCESS, "Build " + run.getDisplayName() + " succeeded");
+        } else if (result == Result.ABORTED || result == Result.NOT_BUILT) {
+            report(run, CommitStatusReporter.State.ERROR, "Build " + run.getDisplayName() + " " + result.toString().toLowerCase(Locale.ENGLISH));
+        } else {
+            report(run, CommitStatusReporter.State.FAILURE, "Build " + run.getDisplayName() + " " + (result == null ? "failed" : result.toString().toLowerCase(Locale.ENGLISH)));
+        }
+    }
+
+    private static void report(Run<?, ?> run, CommitStatusReporter.State state, String description) {
+        GithubWebhookBuildTriggerPluginBuilder.Settings config = GithubWebhookBuildTriggerPluginBuilder.getSettings();
+        if (config == null || !config.isCommitStatus()) {
+            return;
+        }
+        GithubWebhookContextAction context = run.getAction(GithubWebhookContextAction.class);
+        if (context == null || context.getRepo() == null) {
+            return;
+        }
+        String sha = context.getCommit() != null ? context.getCommit() : context.getAfter();
+        // deleted refs have an after of all zeros
+        if (sha == null || sha.matches("0+")) {
+            return;
+        }
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        String rootUrl = jenkins == null ? null : jenkins.getRootUrl();
+        String targetUrl = rootUrl == null ? null : rootUrl + run.getUrl();
+        String statusContext = config.getCommitStatusContext() + "/" + run.getParent().getFullName();
+        CommitStatusReporter.get().report(context.getRepo(), sha, statusContext, state, targetUrl, description);
+    }
+}
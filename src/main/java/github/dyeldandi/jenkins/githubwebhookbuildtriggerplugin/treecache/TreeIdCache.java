@@ -0,0 +1,162 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.treecache;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Bounded, persistent (job, tree_id) -> last successful build cache.
+ *
+ * Least recently used entries are evicted beyond MAX_ENTRIES. The cache is written to
+ * JENKINS_HOME/github-webhook-build-trigger-tree-cache.xml by a periodic task when it changed,
+ * not on every completed build.
+ */
+public final class TreeIdCache {
+
+    private static final Logger LOGGER = Logger.getLogger(TreeIdCache.class.getName());
+
+    private static final int MAX_ENTRIES = 10000;
+    private static final String FILE_NAME = "github-webhook-build-trigger-tree-cache.xml";
+
+    private static final TreeIdCache INSTANCE = new TreeIdCache();
+
+    /*
+     * What triggerJob does when the tree of a flagged commit was already built successfully.
+     */
+    public enum Mode {
+        OFF("Always build"),
+        SKIP("Skip the build"),
+        MARK("Build with GWBT_TREE_ALREADY_BUILT set");
+
+        private final String displayName;
+
+        Mode(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final LinkedHashMap<String, Integer> builds = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean loaded;
+    private boolean dirty;
+
+    private TreeIdCache() {
+    }
+
+    public static TreeIdCache get() {
+        return INSTANCE;
+    }
+
+    /*
+     * Number of the last successful build of job for this tree, or null.
+     */
+    public synchronized Integer getLastSuccessfulBuild(String jobFullName, String treeId) {
+        load();
+        return builds.get(key(jobFullName, treeId));
+    }
+
+    public synchronized void record(String jobFullName, String treeId, int buildNumber) {
+        load();
+        builds.put(key(jobFullName, treeId), buildNumber);
+        dirty = true;
+    }
+
+    private static String key(String jobFullName, String treeId) {
+        return jobFullName + "@" + treeId;
+    }
+
+    private static XmlFile getFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.getInstance().getRootDir(), FILE_NAME));
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        XmlFile file = getFile();
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            Persisted persisted = (Persisted) file.read();
+            if (persisted.entries != null) {
+                for (Persisted.Entry entry : persisted.entries) {
+                    builds.put(entry.key, entry.build);
+                }
+            }
+        } catch (IOException | ClassCastException ex) {
+            LOGGER.log(Level.WARNING, "could not load " + file, ex);
+        }
+    }
+
+    synchronized void saveIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        Persisted persisted = new Persisted();
+        persisted.entries = new ArrayList<>(builds.size());
+        for (Map.Entry<String, Integer> build : builds.entrySet()) {
+            persisted.entries.add(new Persisted.Entry(build.getKey(), build.getValue()));
+        }
+        try {
+            getFile().write(persisted);
+            dirty = false;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "could not save tree_id cache", ex);
+        }
+    }
+
+    /*
+     * On-disk form, oldest entry first so that LRU order survives a restart.
+     */
+    private static final class Persisted {
+        private List<Entry> entries;
+
+        private static final class Entry {
+            private String key;
+            private int build;
+
+            private Entry(String key, int build) {
+                this.key = key;
+                this.build = build;
+            }
+        }
+    }
+
+    @Extension
+    public static class SaveWork extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun() {
+            TreeIdCache.get().saveIfDirty();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.treecache;
+
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.GithubWebhookContextAction;
+import hudson.Extension;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+/*
+ * Fills the TreeIdCache with every successful build triggered for a known tree_id.
+ */
+@Extension
+public class TreeIdCacheRunListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onCompleted(Run<?, ?> run, TaskListener listener) {
+        if (run.getResult() != Result.SUCCESS) {
+            return;
+        }
+        GithubWebhookContextAction context = run.getAction(GithubWebhookContextAction.class);
+        // marker builds did not build anything, keep pointing at the build that did
+        if (context == null || context.getTree() == null || context.getTreeBuilt() != null) {
+            return;
+        }
+        TreeIdCache.get().record(run.getParent().getFullName(), context.getTree(), run.getNumber());
+    }
+}
@@ -21,15 +21,58 @@ public class GitHubWebhookUtility {
             '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
     };
 
+    /*
+     * Mac initialized with the last used secret, cloned per delivery instead of keyed again.
+     */
+    private static volatile KeyedMac keyedMac;
+
+    private static final class KeyedMac {
+        private final String secret;
+        private final Mac mac;
+
+        private KeyedMac(String secret, Mac mac) {
+            this.secret = secret;
+            this.mac = mac;
+        }
+    }
+
+    /*
+     * Key the Mac ahead of the first delivery (startup warm-up, secret changed).
+     */
+    public static void prepare(String secret) {
+        if (secret != null && !secret.isEmpty()) {
+            try {
+                getMac(secret);
+            } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+                throw new RuntimeException(ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static Mac getMac(String secret) throws NoSuchAlgorithmException, InvalidKeyException {
+        KeyedMac current = keyedMac;
+        if (current == null || !current.secret.equals(secret)) {
+            Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(), HMAC_SHA1_ALGORITHM));
+            current = new KeyedMac(secret, mac);
+            keyedMac = current;
+        }
+        try {
+            return (Mac) current.mac.clone();
+        } catch (CloneNotSupportedException ex) {
+            Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(), HMAC_SHA1_ALGORITHM));
+            return mac;
+        }
+    }
+
     public static boolean verifySignature(String payload, String signature, String secret) {
         if (signature == null || !signature.startsWith("sha1=")) {
             return false;
         }
         boolean isValid;
         try {
-            Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
-            SecretKeySpec signingKey = new SecretKeySpec(secret.getBytes(), HMAC_SHA1_ALGORITHM);
-            mac.init(signingKey);
+            Mac mac = getMac(secret);
             byte[] rawHmac = mac.doFinal(payload.getBytes());
             byte[] expected = signature.substring(5).getBytes();
             byte[] actual = new String(encode(rawHmac)).getBytes();
@@ -0,0 +1,168 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/*
+ * Bytes allocated per delivery on the receive path: decode, findFlags and the build requests of
+ * GithubWebhookTriggerService, with legacy build parameters enabled. Measured on the test thread with
+ * com.sun.management.ThreadMXBean and checked against allocation-budget.properties.
+ *
+ * Run with -Dgwbt.allocation.report=true to print the measured values when re-baselining the budget.
+ */
+public class AllocationBudgetTest {
+
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 500;
+    private static final int LARGE_PUSH_COMMITS = 2048;
+    private static final int LARGE_PUSH_FLAG_EVERY = 64;
+
+    private static final GithubWebhookTriggerService TRIGGER_SERVICE = new GithubWebhookTriggerService();
+
+    private static com.sun.management.ThreadMXBean threadMXBean;
+    private static Properties budget;
+    private static String pingPayload;
+    private static String smallPushPayload;
+    private static String largePushPayload;
+    private static String tagCreatePayload;
+    private static long pushReceivedAt;
+
+    // keeps the results reachable so the work is not optimized away
+    private static volatile Object sink;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue("thread allocation accounting is not available on this JVM",
+                bean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        budget = new Properties();
+        try (InputStream in = AllocationBudgetTest.class.getResourceAsStream("allocation-budget.properties")) {
+            assertNotNull("missing allocation-budget.properties", in);
+            budget.load(in);
+        }
+
+        pingPayload = readResource("warmup/ping-payload.json");
+        smallPushPayload = readResource("warmup/push-payload.json");
+        tagCreatePayload = readResource("tag-create-payload.json");
+        largePushPayload = largePush(smallPushPayload);
+
+        // flags are only detected in commits younger than 600s, receive the pushes a minute after the commit
+        JsonObject push = new JsonParser().parse(smallPushPayload).getAsJsonObject();
+        pushReceivedAt = DateTime.parse(push.getAsJsonObject("head_commit").get("timestamp").getAsString()).getMillis() + 60 * 1000;
+    }
+
+    @Test
+    public void ping() {
+        assertWithinBudget("ping", pingPayload, "ping");
+    }
+
+    @Test
+    public void smallPush() {
+        assertEquals(1, deliver(smallPushPayload, "push"));
+        assertWithinBudget("smallPush", smallPushPayload, "push");
+    }
+
+    @Test
+    public void largePush() {
+        assertEquals(LARGE_PUSH_COMMITS / LARGE_PUSH_FLAG_EVERY, deliver(largePushPayload, "push"));
+        assertWithinBudget("largePush", largePushPayload, "push");
+    }
+
+    @Test
+    public void tagCreate() {
+        assertEquals(1, deliver(tagCreatePayload, "create"));
+        assertWithinBudget("tagCreate", tagCreatePayload, "create");
+    }
+
+    private static void assertWithinBudget(String name, String json, String eventType) {
+        String limit = budget.getProperty(name);
+        assertNotNull("no budget for " + name + " in allocation-budget.properties", limit);
+        long measured = measure(json, eventType);
+        if (Boolean.getBoolean("gwbt.allocation.report")) {
+            System.out.println("allocation " + name + "=" + measured);
+        }
+        assertTrue(name + " allocates " + measured + " bytes per delivery, budget is " + limit
+                + " (see allocation-budget.properties)", measured <= Long.parseLong(limit.trim()));
+    }
+
+    /*
+     * Average bytes allocated by the current thread per delivery, after warming up.
+     */
+    private static long measure(String json, String eventType) {
+        for (int i = 0; i < WARMUP; i++) {
+            deliver(json, eventType);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            deliver(json, eventType);
+        }
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+        return (after - before) / ITERATIONS;
+    }
+
+    /*
+     * decode and GithubWebhookTriggerService.getBuildRequests, i.e. triggerJobs without the job lookup
+     * and scheduling. Returns the number of build contexts created.
+     */
+    private static int deliver(String json, String eventType) {
+        GithubWebhookPayload payload = TRIGGER_SERVICE.decode(json, eventType, pushReceivedAt);
+        List<GithubWebhookTriggerService.BuildRequest> requests = TRIGGER_SERVICE.getBuildRequests(payload, true);
+        sink = requests;
+        return requests.size();
+    }
+
+    /*
+     * The sample push with LARGE_PUSH_COMMITS distinct commits, every LARGE_PUSH_FLAG_EVERY-th one flagged.
+     */
+    private static String largePush(String smallPush) {
+        JsonObject push = new JsonParser().parse(smallPush).getAsJsonObject();
+        String template = push.getAsJsonArray("commits").get(0).toString();
+        JsonArray commits = new JsonArray();
+        for (int i = 0; i < LARGE_PUSH_COMMITS; i++) {
+            JsonObject commit = new JsonParser().parse(template).getAsJsonObject();
+            commit.addProperty("id", String.format("%040x", i));
+            if ((i + 1) % LARGE_PUSH_FLAG_EVERY != 0) {
+                commit.addProperty("message", "commit " + i);
+            }
+            commits.add(commit);
+        }
+        push.add("commits", commits);
+        JsonElement last = commits.get(LARGE_PUSH_COMMITS - 1);
+        push.add("head_commit", last);
+        push.addProperty("after", last.getAsJsonObject().get("id").getAsString());
+        return push.toString();
+    }
+
+    private static String readResource(String name) throws IOException {
+        try (InputStream in = AllocationBudgetTest.class.getResourceAsStream(name)) {
+            assertNotNull("missing " + name, in);
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+}
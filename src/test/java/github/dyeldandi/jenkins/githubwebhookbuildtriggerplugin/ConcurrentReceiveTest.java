@@ -0,0 +1,237 @@
+/*
+ * Licensed under MIT License
+ * Copyright (c) 2019 Denis Yeldandi
+ */
+package github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import github.dyeldandi.jenkins.githubwebhookbuildtriggerplugin.config.GithubWebhookBuildTriggerPluginBuilder;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/*
+ * Fires signed push deliveries at /receive from many threads at once and checks that every
+ * delivery ends up as exactly one queue item (or build) per job: none lost, none duplicated.
+ * Every delivery carries its own commit, so neither the seen-commit filter nor the Queue
+ * coalesces them.
+ *
+ * Wall-clock speedups depend on the machine, run with -Dgwbt.throughput.report=true to also
+ * print and check how throughput scales with concurrent senders.
+ */
+public class ConcurrentReceiveTest {
+
+    private static final String SECRET = "concurrent-receive-test";
+    private static final String JOB_PREFIX = "codeclou---test-webhook";
+    private static final int THREADS = 32;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private String pushTemplate;
+    private int nextCommit;
+
+    @Before
+    public void setUp() throws IOException {
+        try (InputStream in = ConcurrentReceiveTest.class.getResourceAsStream("warmup/push-payload.json")) {
+            assertNotNull("missing warmup/push-payload.json", in);
+            pushTemplate = IOUtils.toString(in, "UTF-8");
+        }
+        GithubWebhookBuildTriggerPluginBuilder.DescriptorImpl.getDescriptor().setWebhookSecret(SECRET);
+    }
+
+    @Test
+    public void concurrentDeliveriesQueueOneItemPerJobAndCommit() throws Exception {
+        int deliveries = 400;
+        List<FreeStyleProject> jobs = new ArrayList<>();
+        jobs.add(j.createFreeStyleProject(JOB_PREFIX));
+        jobs.add(j.createFreeStyleProject(JOB_PREFIX + "-deploy"));
+        // nothing is built, every scheduled build stays in the Queue
+        j.jenkins.setNumExecutors(0);
+
+        List<String> commits = newCommits(deliveries);
+        deliver(commits, THREADS);
+
+        Set<String> queued = new HashSet<>();
+        Queue.Item[] items = j.jenkins.getQueue().getItems();
+        for (Queue.Item item : items) {
+            GithubWebhookContextAction context = item.getAction(GithubWebhookContextAction.class);
+            assertNotNull("queue item without webhook context: " + item, context);
+            assertTrue("queued twice: " + item.task.getName() + " " + context.getCommit(),
+                    queued.add(item.task.getName() + " " + context.getCommit()));
+        }
+        assertEquals(deliveries * jobs.size(), items.length);
+        assertEquals(expected(jobs, commits), queued);
+    }
+
+    @Test
+    public void concurrentDeliveriesBuildEachCommitOnce() throws Exception {
+        int deliveries = 60;
+        FreeStyleProject job = j.createFreeStyleProject(JOB_PREFIX);
+        j.jenkins.setNumExecutors(4);
+
+        List<String> commits = newCommits(deliveries);
+        deliver(commits, THREADS);
+        j.waitUntilNoActivity();
+
+        Set<String> built = new HashSet<>();
+        for (FreeStyleBuild build : job.getBuilds()) {
+            j.assertBuildStatusSuccess(build);
+            GithubWebhookContextAction context = build.getAction(GithubWebhookContextAction.class);
+            assertNotNull("build without webhook context: " + build, context);
+            assertTrue("built twice: " + context.getCommit(), built.add(context.getCommit()));
+        }
+        assertEquals(deliveries, job.getBuilds().size());
+        assertEquals(new HashSet<>(commits), built);
+    }
+
+    @Test
+    public void serialAndConcurrentDeliveriesQueueTheSameItems() throws Exception {
+        int deliveries = 200;
+        j.createFreeStyleProject(JOB_PREFIX);
+        j.jenkins.setNumExecutors(0);
+
+        deliver(newCommits(50), 1);
+        j.jenkins.getQueue().clear();
+
+        long serialNanos = deliver(newCommits(deliveries), 1);
+        assertEquals(deliveries, j.jenkins.getQueue().getItems().length);
+        j.jenkins.getQueue().clear();
+
+        long parallelNanos = deliver(newCommits(deliveries), 8);
+        assertEquals(deliveries, j.jenkins.getQueue().getItems().length);
+
+        if (Boolean.getBoolean("gwbt.throughput.report")) {
+            assumeTrue("needs at least 4 processors", Runtime.getRuntime().availableProcessors() >= 4);
+            double speedup = (double) serialNanos / parallelNanos;
+            System.out.println("receive: serial " + TimeUnit.NANOSECONDS.toMillis(serialNanos) + "ms, 8 threads "
+                    + TimeUnit.NANOSECONDS.toMillis(parallelNanos) + "ms for " + deliveries + " deliveries, speedup " + speedup);
+            assertTrue("8 concurrent senders are only " + speedup + "x faster than one", speedup >= 1.25);
+        }
+    }
+
+    private List<String> newCommits(int count) {
+        List<String> commits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            commits.add(String.format("%040x", nextCommit++));
+        }
+        return commits;
+    }
+
+    private static Set<String> expected(List<FreeStyleProject> jobs, List<String> commits) {
+        Set<String> expected = new HashSet<>();
+        for (FreeStyleProject job : jobs) {
+            for (String commit : commits) {
+                expected.add(job.getName() + " " + commit);
+            }
+        }
+        return expected;
+    }
+
+    /*
+     * Posts one push per commit from the given number of threads, all released at once.
+     * Returns the nanoseconds until the last response was read.
+     */
+    private long deliver(List<String> commits, int threads) throws Exception {
+        final String url = j.getURL() + "github-webhook-build-trigger/receive";
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> responses = new ArrayList<>();
+            for (final String commit : commits) {
+                final String body = push(commit);
+                responses.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return post(url, body);
+                    }
+                }));
+            }
+            long started = System.nanoTime();
+            start.countDown();
+            for (Future<Integer> response : responses) {
+                assertEquals(200, (int) response.get(2, TimeUnit.MINUTES));
+            }
+            return System.nanoTime() - started;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * The sample push with its single flagged commit replaced by commit, committed just now.
+     */
+    private String push(String commit) {
+        JsonObject push = new JsonParser().parse(pushTemplate).getAsJsonObject();
+        JsonObject headCommit = push.getAsJsonArray("commits").get(0).getAsJsonObject();
+        headCommit.addProperty("id", commit);
+        headCommit.addProperty("tree_id", new StringBuilder(commit).reverse().toString());
+        headCommit.addProperty("timestamp", DateTime.now().toString());
+        push.add("head_commit", headCommit);
+        push.addProperty("after", commit);
+        return push.toString();
+    }
+
+    private static int post(String url, String body) throws Exception {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("x-github-event", "push");
+        connection.setRequestProperty("x-github-delivery", UUID.randomUUID().toString());
+        connection.setRequestProperty("x-hub-signature", "sha1=" + hmacSha1(bytes));
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(bytes);
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            in.close();
+        }
+        return status;
+    }
+
+    private static String hmacSha1(byte[] body) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : mac.doFinal(body)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}